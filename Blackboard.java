@@ -1,288 +1,1476 @@
+import java.io.*;
+import java.lang.invoke.*;
+import java.lang.management.*;
+import java.nio.*;
+import java.nio.charset.*;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+import javax.management.*;
+import jdk.jfr.*;
+
+class Review
+{
+    private static final String SEPARATOR = ", ";
+
+    private String buyer;
+    private String product;
+    private String text;
+    private String image;
+    private String extra;
+    private char sentiment;
+    private int matchedCategories = -1;
+
+    public static Review parse(String line)
+    {
+        Review review = new Review();
+
+        int end = line.length();
+        while(end >= SEPARATOR.length() && line.startsWith(SEPARATOR, end - SEPARATOR.length()))
+        {
+            end -= SEPARATOR.length();
+        }
+        if(end == 0 && end != line.length())
+        {
+            return review;
+        }
+
+        int start = 0;
+        for(int field = 0; field < 4; field++)
+        {
+            int next = line.indexOf(SEPARATOR, start);
+            if(next < 0 || next >= end)
+            {
+                review.setField(field, line.substring(start, end));
+                return review;
+            }
+            review.setField(field, line.substring(start, next));
+            start = next + SEPARATOR.length();
+        }
+        review.extra = line.substring(start, end);
+        return review;
+    }
+
+    private void setField(int field, String value)
+    {
+        switch(field)
+        {
+            case 0: buyer = value; break;
+            case 1: product = value; break;
+            case 2: text = value; break;
+            default: image = value; break;
+        }
+    }
+
+    public String getBuyer()
+    {
+        return buyer;
+    }
+
+    public String getProduct()
+    {
+        return product;
+    }
+
+    public String getText()
+    {
+        return text;
+    }
+
+    public String getImage()
+    {
+        return image;
+    }
+
+    public void setImage(String image)
+    {
+        this.image = image;
+    }
+
+    public String getExtra()
+    {
+        return extra;
+    }
+
+    public boolean hasExtraFields()
+    {
+        return extra != null;
+    }
+
+    public char getSentiment()
+    {
+        return sentiment;
+    }
+
+    public void setSentiment(char sentiment)
+    {
+        this.sentiment = sentiment;
+    }
+
+    public int getMatchedCategories()
+    {
+        return matchedCategories;
+    }
+
+    public void setMatchedCategories(int matchedCategories)
+    {
+        this.matchedCategories = matchedCategories;
+    }
+
+    public void replace(String target, String replacement)
+    {
+        if(buyer != null) buyer = buyer.replace(target, replacement);
+        if(product != null) product = product.replace(target, replacement);
+        if(text != null) text = text.replace(target, replacement);
+        if(image != null) image = image.replace(target, replacement);
+        if(extra != null) extra = extra.replace(target, replacement);
+    }
+
+    public String toString()
+    {
+        if(buyer == null)
+        {
+            return "";
+        }
+
+        StringBuilder line = new StringBuilder(buyer);
+        if(product != null)
+        {
+            line.append(SEPARATOR).append(product);
+        }
+        if(text != null)
+        {
+            line.append(SEPARATOR).append(text);
+            if(sentiment != 0)
+            {
+                line.append(sentiment);
+            }
+        }
+        if(image != null)
+        {
+            line.append(SEPARATOR).append(image);
+        }
+        if(extra != null)
+        {
+            line.append(SEPARATOR).append(extra);
+        }
+        return line.toString();
+    }
+}
+
+class TermMatcher
+{
+    public static final int PROFANITY = 1;
+    public static final int POLITICAL = 2;
+
+    private static final List<String> DEFAULT_PROFANITY_TERMS = Arrays.asList("@#$%");
+    private static final List<String> DEFAULT_POLITICAL_TERMS = Arrays.asList("---", "+++");
+    private static final String SEPARATOR = ", ";
+
+    private static final int[] UTF8_LEADS = { 0, 0xC0, 0xE0, 0xF0 };
+
+    private final int[] symbols = new int[256];
+    private final int alphabetSize;
+    private final int[] transitions;
+    private final int[] outputs;
+
+    public TermMatcher(Map<String, Integer> terms)
+    {
+        List<byte[]> keys = new ArrayList<>();
+        List<Integer> categories = new ArrayList<>();
+        int alphabet = 1;
+        long totalLength = 0;
+        for(Map.Entry<String, Integer> term : terms.entrySet())
+        {
+            byte[] key = term.getKey().getBytes(StandardCharsets.UTF_8);
+            for(byte symbol : key)
+            {
+                if(symbols[symbol & 0xFF] == 0)
+                {
+                    symbols[symbol & 0xFF] = alphabet++;
+                }
+            }
+            keys.add(key);
+            categories.add(term.getValue());
+            totalLength += key.length;
+        }
+        long size = (totalLength + 1) * alphabet;
+        if(size > Integer.MAX_VALUE - 8)
+        {
+            throw new IllegalArgumentException("Blocklist too large: " + (totalLength + 1) + " states x " + alphabet + " symbols");
+        }
+        this.alphabetSize = alphabet;
+        this.transitions = new int[(int) size];
+        this.outputs = new int[(int) totalLength + 1];
+        Arrays.fill(transitions, -1);
+
+        int states = 1;
+        for(int term = 0; term < keys.size(); term++)
+        {
+            int state = 0;
+            for(byte symbol : keys.get(term))
+            {
+                int slot = state * alphabetSize + symbols[symbol & 0xFF];
+                if(transitions[slot] < 0)
+                {
+                    transitions[slot] = states++;
+                }
+                state = transitions[slot];
+            }
+            if(state != 0)
+            {
+                outputs[state] |= categories.get(term);
+            }
+        }
+
+        int[] failure = new int[states];
+        int[] queue = new int[states];
+        int head = 0;
+        int tail = 0;
+        for(int symbol = 0; symbol < alphabetSize; symbol++)
+        {
+            int child = transitions[symbol];
+            if(child < 0)
+            {
+                transitions[symbol] = 0;
+            }
+            else
+            {
+                failure[child] = 0;
+                queue[tail++] = child;
+            }
+        }
+        while(head < tail)
+        {
+            int state = queue[head++];
+            for(int symbol = 0; symbol < alphabetSize; symbol++)
+            {
+                int slot = state * alphabetSize + symbol;
+                int fallback = transitions[failure[state] * alphabetSize + symbol];
+                int child = transitions[slot];
+                if(child < 0)
+                {
+                    transitions[slot] = fallback;
+                }
+                else
+                {
+                    failure[child] = fallback;
+                    outputs[child] |= outputs[fallback];
+                    queue[tail++] = child;
+                }
+            }
+        }
+    }
+
+    public static TermMatcher defaults()
+    {
+        Map<String, Integer> terms = new HashMap<>();
+        addTerms(terms, DEFAULT_PROFANITY_TERMS, PROFANITY);
+        addTerms(terms, DEFAULT_POLITICAL_TERMS, POLITICAL);
+        return new TermMatcher(terms);
+    }
+
+    public static TermMatcher load(String profanityFile, String politicalFile) throws IOException
+    {
+        Map<String, Integer> terms = new HashMap<>();
+        addTerms(terms, profanityFile == null ? DEFAULT_PROFANITY_TERMS : loadTerms(profanityFile), PROFANITY);
+        addTerms(terms, politicalFile == null ? DEFAULT_POLITICAL_TERMS : loadTerms(politicalFile), POLITICAL);
+        return new TermMatcher(terms);
+    }
+
+    private static void addTerms(Map<String, Integer> terms, List<String> list, int category)
+    {
+        for(String term : list)
+        {
+            terms.merge(term, category, (a, b) -> a | b);
+        }
+    }
+
+    private static List<String> loadTerms(String file) throws IOException
+    {
+        List<String> terms = new ArrayList<>();
+        for(String line : Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8))
+        {
+            if(!line.trim().isEmpty())
+            {
+                terms.add(line.trim());
+            }
+        }
+        return terms;
+    }
+
+    public boolean matches(Review review, int category)
+    {
+        int categories = review.getMatchedCategories();
+        if(categories < 0)
+        {
+            categories = scan(review);
+            review.setMatchedCategories(categories);
+        }
+        return (categories & category) != 0;
+    }
+
+    private int scan(Review review)
+    {
+        if(review.getBuyer() == null)
+        {
+            return 0;
+        }
+        long scan = feed(0L, review.getBuyer());
+        if(review.getProduct() != null)
+        {
+            scan = feed(feed(scan, SEPARATOR), review.getProduct());
+        }
+        if(review.getText() != null)
+        {
+            scan = feed(feed(scan, SEPARATOR), review.getText());
+        }
+        if(review.getImage() != null)
+        {
+            scan = feed(feed(scan, SEPARATOR), review.getImage());
+        }
+        if(review.getExtra() != null)
+        {
+            scan = feed(feed(scan, SEPARATOR), review.getExtra());
+        }
+        return (int) (scan >>> 32);
+    }
+
+    private long feed(long scan, String text)
+    {
+        int state = (int) scan;
+        int found = (int) (scan >>> 32);
+        for(int i = 0; i < text.length(); i++)
+        {
+            int c = text.charAt(i);
+            int tail = 0;
+            if(c >= 0x80)
+            {
+                if(c < 0x800)
+                {
+                    tail = 1;
+                }
+                else if(!Character.isSurrogate((char) c))
+                {
+                    tail = 2;
+                }
+                else if(Character.isHighSurrogate((char) c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1)))
+                {
+                    c = Character.toCodePoint((char) c, text.charAt(++i));
+                    tail = 3;
+                }
+                else
+                {
+                    c = '?';
+                }
+            }
+            state = transitions[state * alphabetSize + symbols[UTF8_LEADS[tail] | c >> 6 * tail]];
+            found |= outputs[state];
+            for(int shift = 6 * (tail - 1); shift >= 0; shift -= 6)
+            {
+                state = transitions[state * alphabetSize + symbols[0x80 | c >> shift & 0x3F]];
+                found |= outputs[state];
+            }
+        }
+        return ((long) found << 32) | state;
+    }
+}
+
+class BuyerIndex
+{
+    private static final String SEPARATOR = " - ";
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private long[] slots;
+    private int size;
+
+    public BuyerIndex(int expectedPairs)
+    {
+        int capacity = 16;
+        while(capacity * 3L < expectedPairs * 4L)
+        {
+            capacity <<= 1;
+        }
+        slots = new long[capacity];
+    }
+
+    public static BuyerIndex of(Collection<String> pairs)
+    {
+        BuyerIndex index = new BuyerIndex(pairs.size());
+        for(String pair : pairs)
+        {
+            index.add(pair);
+        }
+        return index;
+    }
+
+    public static BuyerIndex load(String file) throws IOException
+    {
+        BuyerIndex index = new BuyerIndex(1024);
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8))
+        {
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                if(!line.trim().isEmpty())
+                {
+                    index.add(line.trim());
+                }
+            }
+        }
+        return index;
+    }
+
+    public void add(String pair)
+    {
+        if(size * 4L >= slots.length * 3L)
+        {
+            resize();
+        }
+        if(insert(slots, finish(update(FNV_OFFSET, pair, 0, pair.length()))))
+        {
+            size++;
+        }
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean contains(String buyer, String product)
+    {
+        long hash = update(FNV_OFFSET, buyer, 0, buyer.length());
+        hash = update(hash, SEPARATOR, 0, SEPARATOR.length());
+        hash = update(hash, product, 0, product.length());
+        return find(finish(hash));
+    }
+
+    public boolean containsTrimmed(String buyer, String product)
+    {
+        int buyerStart = trimStart(buyer);
+        int productStart = trimStart(product);
+        long hash = update(FNV_OFFSET, buyer, buyerStart, trimEnd(buyer, buyerStart));
+        hash = update(hash, SEPARATOR, 0, SEPARATOR.length());
+        hash = update(hash, product, productStart, trimEnd(product, productStart));
+        return find(finish(hash));
+    }
+
+    private boolean find(long hash)
+    {
+        int mask = slots.length - 1;
+        for(int slot = (int) hash & mask; slots[slot] != 0; slot = (slot + 1) & mask)
+        {
+            if(slots[slot] == hash)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean insert(long[] table, long hash)
+    {
+        int mask = table.length - 1;
+        int slot = (int) hash & mask;
+        while(table[slot] != 0)
+        {
+            if(table[slot] == hash)
+            {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = hash;
+        return true;
+    }
+
+    private void resize()
+    {
+        long[] table = new long[slots.length * 2];
+        for(long hash : slots)
+        {
+            if(hash != 0)
+            {
+                insert(table, hash);
+            }
+        }
+        slots = table;
+    }
+
+    private static long update(long hash, String text, int from, int to)
+    {
+        for(int i = from; i < to; i++)
+        {
+            hash = (hash ^ text.charAt(i)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private static long finish(long hash)
+    {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash == 0 ? 1 : hash;
+    }
+
+    private static int trimStart(String text)
+    {
+        int start = 0;
+        while(start < text.length() && text.charAt(start) <= ' ')
+        {
+            start++;
+        }
+        return start;
+    }
+
+    private static int trimEnd(String text, int start)
+    {
+        int end = text.length();
+        while(end > start && text.charAt(end - 1) <= ' ')
+        {
+            end--;
+        }
+        return end;
+    }
+}
+
+class SentimentKernel
+{
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+    private static final boolean SWAR = !"scalar".equals(System.getProperty("blackboard.sentimentKernel"));
+
+    public static char classify(String text)
+    {
+        int length = text.length();
+        int upper = 0;
+        int lower = 0;
+        for(int i = 0; i < length; i++)
+        {
+            int c = text.charAt(i);
+            if(c >= 0x80)
+            {
+                return classifySlow(text, i, upper, lower);
+            }
+            upper += isBetween(c, 'A', 'Z');
+            lower += isBetween(c, 'a', 'z');
+        }
+        return verdict(upper, lower);
+    }
+
+    public static char classify(byte[] utf8, int offset, int length)
+    {
+        int upper = 0;
+        int lower = 0;
+        int i = offset;
+        int end = offset + length;
+        if(SWAR)
+        {
+            for(; i + 8 <= end; i += 8)
+            {
+                long word = (long) LONGS.get(utf8, i);
+                if((word & HIGH_BITS) != 0) break;
+
+                upper += Long.bitCount(between(word, 'A', 'Z'));
+                lower += Long.bitCount(between(word, 'a', 'z'));
+            }
+        }
+        for(; i < end; i++)
+        {
+            int c = utf8[i];
+            if(c < 0)
+            {
+                return classifySlow(new String(utf8, i, end - i, StandardCharsets.UTF_8), 0, upper, lower);
+            }
+            upper += isBetween(c, 'A', 'Z');
+            lower += isBetween(c, 'a', 'z');
+        }
+        return verdict(upper, lower);
+    }
+
+    private static char classifySlow(String text, int from, int upper, int lower)
+    {
+        for(int i = from; i < text.length(); i++)
+        {
+            char c = text.charAt(i);
+            if(Character.isUpperCase(c))
+            {
+                upper++;
+            }
+            else if(Character.isLowerCase(c))
+            {
+                lower++;
+            }
+        }
+        return verdict(upper, lower);
+    }
+
+    private static int isBetween(int c, int low, int high)
+    {
+        return ((high - c) | (c - low)) >>> 31 ^ 1;
+    }
+
+    private static long between(long word, int low, int high)
+    {
+        long aboveLow = word + (0x80 - low) * ONES;
+        long aboveHigh = word + (0x80 - high - 1) * ONES;
+        return aboveLow & ~aboveHigh & HIGH_BITS;
+    }
+
+    private static char verdict(int upper, int lower)
+    {
+        if(upper > lower)
+        {
+            return '+';
+        }
+        if(lower > upper)
+        {
+            return '-';
+        }
+        return '=';
+    }
+}
 
 interface KnowledgeSource 
 {   
     public boolean execCondition(BlackboardStore blackboardStore);
     public void execAction(BlackboardStore blackboardStore);
     public boolean isEliminator();
+
+    public default boolean accept(Review message)
+    {
+        BlackboardStore single = new BlackboardStore();
+        single.addMessage(message);
+        execAction(single);
+        return !single.isEmpty();
+    }
+
+    public default Review transform(Review message)
+    {
+        BlackboardStore single = new BlackboardStore();
+        single.addMessage(message);
+        execAction(single);
+        return single.isEmpty() ? message : single.view().get(0);
+    }
+
+    public default boolean isFusable()
+    {
+        return false;
+    }
+}
+
+class BlackboardStore 
+{
+    private List<Review> messages = new ArrayList<>();
+    private final List<Review> view = Collections.unmodifiableList(messages);
+    private int eliminatorCounter = 0;
+    private boolean transformationFlag = false;
+
+    public void addMessages(List<String> newMessages) 
+    {
+        for (String message : newMessages) 
+        {
+            messages.add(Review.parse(message));
+        }
+    }
+
+    public void addMessage(Review message) 
+    {
+        messages.add(message);
+    }
+
+    public List<Review> getMessages() 
+    {
+        return new ArrayList<>(messages);
+    }
+
+    public List<Review> view() 
+    {
+        return view;
+    }
+
+    public void updateMessages(List<Review> updatedMessages) 
+    {
+        messages.clear();
+        messages.addAll(updatedMessages);
+    }
+
+    public void retain(Predicate<Review> filter) 
+    {
+        int kept = 0;
+        for (int i = 0; i < messages.size(); i++) 
+        {
+            Review message = messages.get(i);
+            if (filter.test(message)) 
+            {
+                messages.set(kept++, message);
+            }
+        }
+        messages.subList(kept, messages.size()).clear();
+    }
+
+    public void transform(UnaryOperator<Review> transformer) 
+    {
+        messages.replaceAll(transformer);
+    }
+
+    public void printMessages() 
+    {
+        for (Review message : messages) 
+        {
+            System.out.println(message);
+        }
+    }
+
+    public boolean isEmpty() 
+    {
+        return messages.isEmpty();
+    }
+
+    public int size() 
+    {
+        return messages.size();
+    }
+
+    public void increaseEliminatorCounter() 
+    {
+        eliminatorCounter++;
+    }
+
+    public boolean areEliminatorFinished(int eliminatorCount) 
+    {
+        return eliminatorCounter >= eliminatorCount;
+    }
+
+    public void setTransformationFlag(boolean value) 
+    {
+        transformationFlag = value;
+    }
+
+    public boolean canTransform() 
+    {
+        return transformationFlag;
+    }
+
+    public int getEliminatorCounter()
+    {
+        return eliminatorCounter;
+    }
+}
+
+class BuyerFilter implements KnowledgeSource 
+{
+    private BuyerIndex buyers;
+
+    public BuyerFilter(BuyerIndex buyers) 
+    {
+        this.buyers = buyers;
+    }
+
+    public boolean accept(Review message) 
+    {
+        return message.getProduct() != null && buyers.contains(message.getBuyer(), message.getProduct());
+    }
+
+    public void execAction(BlackboardStore blackboardStore) 
+    {
+        blackboardStore.retain(this::accept);
+        blackboardStore.increaseEliminatorCounter();
+    }
+
+    public boolean execCondition(BlackboardStore blackboardStore) 
+    {
+        return !blackboardStore.isEmpty();
+    }
+
+    public boolean isEliminator() 
+    {
+        return true;
+    }
+}
+
+class ProfanityFilter implements KnowledgeSource 
+{
+    private TermMatcher blocklist;
+
+    public ProfanityFilter(TermMatcher blocklist) 
+    {
+        this.blocklist = blocklist;
+    }
+
+    public boolean accept(Review message) 
+    {
+        return !blocklist.matches(message, TermMatcher.PROFANITY);
+    }
+
+    public void execAction(BlackboardStore blackboardStore) 
+    {
+        blackboardStore.retain(this::accept);
+        blackboardStore.increaseEliminatorCounter();
+    }
+
+    public boolean execCondition(BlackboardStore blackboardStore) 
+    {
+        return !blackboardStore.isEmpty();
+    }
+
+    public boolean isEliminator() 
+    {
+        return true;
+    }
+}
+
+class PoliticalFilter implements KnowledgeSource 
+{
+    private TermMatcher blocklist;
+
+    public PoliticalFilter(TermMatcher blocklist) 
+    {
+        this.blocklist = blocklist;
+    }
+
+    public boolean accept(Review message) 
+    {
+        return !blocklist.matches(message, TermMatcher.POLITICAL);
+    }
+
+    public void execAction(BlackboardStore blackboardStore) 
+    {
+        blackboardStore.retain(this::accept);
+        blackboardStore.increaseEliminatorCounter();
+    }
+
+    public boolean execCondition(BlackboardStore blackboardStore) 
+    {
+        return !blackboardStore.isEmpty();
+    }
+
+    public boolean isEliminator() 
+    {
+        return true;
+    }
+}
+
+class ImageResizer implements KnowledgeSource 
+{
+    public Review transform(Review message) 
+    {
+        if (message.getImage() != null && !message.hasExtraFields()) 
+        {
+            message.setImage(message.getImage().toLowerCase());
+        }
+        return message;
+    }
+
+    public void execAction(BlackboardStore blackboardStore) 
+    {
+        blackboardStore.transform(this::transform);
+    }
+
+    public boolean execCondition(BlackboardStore blackboardStore) 
+    {
+        return blackboardStore.areEliminatorFinished(blackboardStore.getEliminatorCounter()) && !blackboardStore.isEmpty();
+    }
+
+    public boolean isEliminator() 
+    {
+        return false;
+    }
+
+    public boolean isFusable() 
+    {
+        return true;
+    }
+}
+
+class LinkRemover implements KnowledgeSource 
+{
+    public Review transform(Review message) 
+    {
+        message.replace("http", "");
+        return message;
+    }
+
+    public void execAction(BlackboardStore blackboardStore) 
+    {
+        blackboardStore.transform(this::transform);
+    }
+
+    public boolean execCondition(BlackboardStore blackboardStore) 
+    {
+        return blackboardStore.areEliminatorFinished(blackboardStore.getEliminatorCounter()) && !blackboardStore.isEmpty();
+    }
+
+    public boolean isEliminator() 
+    {
+        return false;
+    }
+
+    public boolean isFusable() 
+    {
+        return true;
+    }
+}
+
+class SentimentAnalyzer implements KnowledgeSource 
+{
+    public Review transform(Review message) 
+    {
+        if (message.getText() != null) 
+        {
+            message.setSentiment(SentimentKernel.classify(message.getText()));
+        }
+        return message;
+    }
+
+    public void execAction(BlackboardStore blackboardStore) 
+    {
+        blackboardStore.transform(this::transform);
+    }
+
+    public boolean execCondition(BlackboardStore blackboardStore) 
+    {
+        return blackboardStore.areEliminatorFinished(blackboardStore.getEliminatorCounter()) && !blackboardStore.isEmpty();
+    }
+
+    public boolean isEliminator() 
+    {
+        return false;
+    }
+
+    public boolean isFusable() 
+    {
+        return true;
+    }
+}
+
+@Name("blackboard.Stage")
+@Label("Knowledge Source")
+@Category("Blackboard")
+class StageEvent extends Event
+{
+    @Label("Stage")
+    String stage;
+
+    @Label("Received")
+    long received;
+
+    @Label("Emitted")
+    long emitted;
+
+    @Label("Rejected")
+    long rejected;
+
+    @Label("Total Time")
+    @Timespan
+    long totalTime;
+
+    @Label("Latency P50")
+    @Timespan
+    long latencyP50;
+
+    @Label("Latency P99")
+    @Timespan
+    long latencyP99;
 }
 
-class BlackboardStore 
+@Name("blackboard.QueueDepth")
+@Label("Blackboard Depth")
+@Category("Blackboard")
+@Period("1 s")
+class QueueDepthEvent extends Event
 {
-    private List<String> messages = new ArrayList<>();
-    private int eliminatorCounter = 0;
-    private boolean transformationFlag = false;
+    @Label("Stage")
+    String stage;
 
-    public void addMessages(List<String> newMessages) 
+    @Label("Depth")
+    long depth;
+}
+
+class StageMetrics implements DynamicMBean
+{
+    private static final Set<StageMetrics> ACTIVE = new CopyOnWriteArraySet<>();
+    private static final String[] ATTRIBUTES = { "Received", "Emitted", "Rejected", "TotalNanos", "LatencyP50Nanos", "LatencyP99Nanos", "LatencyMaxNanos", "QueueDepth" };
+
+    static
     {
-        messages.addAll(newMessages);
+        FlightRecorder.addPeriodicEvent(QueueDepthEvent.class, () ->
+        {
+            for(StageMetrics stage : ACTIVE)
+            {
+                QueueDepthEvent event = new QueueDepthEvent();
+                event.stage = stage.getName();
+                event.depth = stage.getQueueDepth();
+                event.commit();
+            }
+        });
     }
 
-    public List<String> getMessages() 
+    private final String name;
+    private final IntSupplier depth;
+    private final long[] latencies = new long[65];
+    private volatile long received;
+    private volatile long emitted;
+    private volatile long rejected;
+    private volatile long totalNanos;
+    private volatile long maxLatency;
+    private ObjectName objectName;
+
+    public StageMetrics(String name, IntSupplier depth)
     {
-        return new ArrayList<>(messages);
+        this.name = name;
+        this.depth = depth;
     }
 
-    public void updateMessages(List<String> updatedMessages) 
+    public String getName()
     {
-        messages.clear();
-        messages.addAll(updatedMessages);
+        return name;
     }
 
-    public void printMessages() 
+    public void recordMessage(long nanos, boolean accepted)
     {
-        for (String message : messages) 
+        received++;
+        if(accepted)
         {
-            System.out.println(message);
+            emitted++;
+        }
+        else
+        {
+            rejected++;
+        }
+        totalNanos += nanos;
+        latencies[64 - Long.numberOfLeadingZeros(nanos)]++;
+        if(nanos > maxLatency)
+        {
+            maxLatency = nanos;
         }
     }
 
-    public boolean isEmpty() 
+    public void recordBatch(int before, int after, long nanos)
     {
-        return messages.isEmpty();
+        received += before;
+        emitted += after;
+        rejected += before - after;
+        totalNanos += nanos;
     }
 
-    public void increaseEliminatorCounter() 
+    public long getQueueDepth()
     {
-        eliminatorCounter++;
+        return depth.getAsInt();
     }
 
-    public boolean areEliminatorFinished(int eliminatorCount) 
+    public long samples()
     {
-        return eliminatorCounter >= eliminatorCount;
+        long total = 0;
+        for(long count : latencies)
+        {
+            total += count;
+        }
+        return total;
     }
 
-    public void setTransformationFlag(boolean value) 
+    public long percentile(double fraction)
     {
-        transformationFlag = value;
+        long total = samples();
+        long target = (long) Math.ceil(total * fraction);
+        long seen = 0;
+        for(int i = 0; i < latencies.length; i++)
+        {
+            seen += latencies[i];
+            if(seen >= target && seen > 0)
+            {
+                return i == 0 ? 0 : i >= 63 ? Long.MAX_VALUE : (1L << i) - 1;
+            }
+        }
+        return 0;
     }
 
-    public boolean canTransform() 
+    public void register(String control)
     {
-        return transformationFlag;
+        try
+        {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            Hashtable<String, String> keys = new Hashtable<>();
+            keys.put("control", control);
+            keys.put("stage", name);
+            objectName = new ObjectName("blackboard", keys);
+            if(server.isRegistered(objectName))
+            {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(this, objectName);
+        }
+        catch(JMException e)
+        {
+            e.printStackTrace();
+        }
+        ACTIVE.add(this);
     }
 
-    public int getEliminatorCounter()
+    public void finish()
     {
-        return eliminatorCounter;
+        ACTIVE.remove(this);
+        StageEvent event = new StageEvent();
+        if(event.shouldCommit())
+        {
+            event.stage = name;
+            event.received = received;
+            event.emitted = emitted;
+            event.rejected = rejected;
+            event.totalTime = totalNanos;
+            event.latencyP50 = percentile(0.5);
+            event.latencyP99 = percentile(0.99);
+            event.commit();
+        }
     }
-}
-
-class BuyerFilter implements KnowledgeSource 
-{
-    private Set<String> buyers;
 
-    public BuyerFilter(Set<String> buyers) 
+    public void unregister()
     {
-        this.buyers = buyers;
+        ACTIVE.remove(this);
+        try
+        {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if(objectName != null && server.isRegistered(objectName))
+            {
+                server.unregisterMBean(objectName);
+            }
+        }
+        catch(JMException e)
+        {
+            e.printStackTrace();
+        }
     }
 
-    public void execAction(BlackboardStore blackboardStore) 
+    public Object getAttribute(String attribute) throws AttributeNotFoundException
     {
-        List<String> validMessages = new ArrayList<>();
+        switch(attribute)
+        {
+            case "Received": return received;
+            case "Emitted": return emitted;
+            case "Rejected": return rejected;
+            case "TotalNanos": return totalNanos;
+            case "LatencyP50Nanos": return percentile(0.5);
+            case "LatencyP99Nanos": return percentile(0.99);
+            case "LatencyMaxNanos": return maxLatency;
+            case "QueueDepth": return getQueueDepth();
+            default: throw new AttributeNotFoundException(attribute);
+        }
+    }
 
-        for (String message : blackboardStore.getMessages()) 
+    public AttributeList getAttributes(String[] attributes)
+    {
+        AttributeList values = new AttributeList();
+        for(String attribute : attributes)
         {
-            String[] parts = message.split(", ");
-            if (parts.length >= 2 && buyers.contains(parts[0] + " - " + parts[1])) 
+            try
+            {
+                values.add(new Attribute(attribute, getAttribute(attribute)));
+            }
+            catch(AttributeNotFoundException e)
             {
-                validMessages.add(message);
             }
         }
-
-        blackboardStore.updateMessages(validMessages);
-        blackboardStore.increaseEliminatorCounter();
+        return values;
     }
 
-    public boolean execCondition(BlackboardStore blackboardStore) 
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException
     {
-        return !blackboardStore.isEmpty();
+        throw new AttributeNotFoundException(attribute.getName() + " is read-only");
     }
 
-    public boolean isEliminator() 
+    public AttributeList setAttributes(AttributeList attributes)
     {
-        return true;
+        return new AttributeList();
     }
-}
 
-class ProfanityFilter implements KnowledgeSource 
-{
-    public void execAction(BlackboardStore blackboardStore) 
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException
     {
-        List<String> filteredMessages = new ArrayList<>();
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
 
-        for (String message : blackboardStore.getMessages()) 
+    public MBeanInfo getMBeanInfo()
+    {
+        MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[ATTRIBUTES.length];
+        for(int i = 0; i < ATTRIBUTES.length; i++)
         {
-            if (!message.contains("@#$%")) 
-            {
-                filteredMessages.add(message);
-            }
+            attributes[i] = new MBeanAttributeInfo(ATTRIBUTES[i], "java.lang.Long", ATTRIBUTES[i], true, false, false);
         }
-
-        blackboardStore.updateMessages(filteredMessages);
-        blackboardStore.increaseEliminatorCounter();
+        return new MBeanInfo(getClass().getName(), "Knowledge source " + name, attributes, null, null, null);
     }
 
-    public boolean execCondition(BlackboardStore blackboardStore) 
+    public String toString()
     {
-        return !blackboardStore.isEmpty();
+        long perMessage = received == 0 ? 0 : totalNanos / received;
+        boolean sampled = samples() > 0;
+        return String.format("%-20s in=%-9d out=%-9d rejected=%-9d total=%dms avg=%-8s p50=%-8s p99=%-8s max=%s",
+            name, received, emitted, rejected, TimeUnit.NANOSECONDS.toMillis(totalNanos), formatNanos(perMessage),
+            sampled ? formatNanos(percentile(0.5)) : "-", sampled ? formatNanos(percentile(0.99)) : "-", sampled ? formatNanos(maxLatency) : "-");
     }
 
-    public boolean isEliminator() 
+    private static String formatNanos(long nanos)
     {
-        return true;
+        if(nanos < 10_000)
+        {
+            return nanos + "ns";
+        }
+        if(nanos < 10_000_000)
+        {
+            return TimeUnit.NANOSECONDS.toMicros(nanos) + "us";
+        }
+        return TimeUnit.NANOSECONDS.toMillis(nanos) + "ms";
     }
 }
 
-class PoliticalFilter implements KnowledgeSource 
+class EliminatorOrder 
 {
-    public void execAction(BlackboardStore blackboardStore) 
-    {
-        List<String> filteredMessages = new ArrayList<>();
+    private static final int SAMPLE_INTERVAL = 64;
+    private static final int REORDER_INTERVAL = 16;
+    private static final int BATCH_SAMPLES = 64;
+    private static final double DECAY = 0.05;
 
-        for (String message : blackboardStore.getMessages()) 
+    private final KnowledgeSource[] filters;
+    private final double[] cost;
+    private final double[] rejection;
+    private final boolean adaptive;
+    private int[] order;
+    private long messages;
+    private long samples;
+
+    public EliminatorOrder(List<KnowledgeSource> filters, boolean adaptive) 
+    {
+        this.filters = filters.toArray(new KnowledgeSource[0]);
+        this.cost = new double[this.filters.length];
+        this.rejection = new double[this.filters.length];
+        this.adaptive = adaptive;
+        this.order = new int[this.filters.length];
+        for (int i = 0; i < order.length; i++) 
         {
-            if (!message.contains("---") && !message.contains("+++")) 
-            {
-                filteredMessages.add(message);
-            }
+            order[i] = i;
         }
-
-        blackboardStore.updateMessages(filteredMessages);
-        blackboardStore.increaseEliminatorCounter();
     }
 
-    public boolean execCondition(BlackboardStore blackboardStore) 
+    public List<KnowledgeSource> rank(List<Review> batch) 
     {
-        return !blackboardStore.isEmpty();
+        if (adaptive && !batch.isEmpty()) 
+        {
+            int stride = Math.max(1, batch.size() / BATCH_SAMPLES);
+            for (int i = 0; i < batch.size(); i += stride) 
+            {
+                sample(batch.get(i), Collections.emptyMap());
+            }
+            reorder();
+        }
+        List<KnowledgeSource> ordered = new ArrayList<>();
+        for (int index : order) 
+        {
+            ordered.add(filters[index]);
+        }
+        return ordered;
     }
 
-    public boolean isEliminator() 
+    public boolean accept(Review message, Map<KnowledgeSource, StageMetrics> metrics) 
     {
+        if (adaptive && ++messages % SAMPLE_INTERVAL == 0) 
+        {
+            return sample(message, metrics);
+        }
+        for (int index : order) 
+        {
+            KnowledgeSource filter = filters[index];
+            StageMetrics stage = metrics.get(filter);
+            if (stage == null) 
+            {
+                if (!filter.accept(message)) 
+                {
+                    return false;
+                }
+                continue;
+            }
+            long start = System.nanoTime();
+            boolean accepted = filter.accept(message);
+            stage.recordMessage(System.nanoTime() - start, accepted);
+            if (!accepted) 
+            {
+                return false;
+            }
+        }
         return true;
     }
-}
 
-class ImageResizer implements KnowledgeSource 
-{
-    public void execAction(BlackboardStore blackboardStore) 
+    private boolean sample(Review message, Map<KnowledgeSource, StageMetrics> metrics) 
     {
-        List<String> updatedMessages = new ArrayList<>();
-
-        for (String message : blackboardStore.getMessages()) 
+        boolean accepted = true;
+        for (int index : order) 
         {
-            String[] words = message.split(", ");
-            if (words.length == 4) 
+            long start = System.nanoTime();
+            boolean passed = filters[index].accept(message);
+            long nanos = System.nanoTime() - start;
+            StageMetrics stage = metrics.get(filters[index]);
+            if (stage != null && accepted) 
             {
-                words[3] = words[3].toLowerCase();
+                stage.recordMessage(nanos, passed);
             }
-            updatedMessages.add(String.join(", ", words));
+            double rejected = passed ? 0 : 1;
+            if (samples == 0) 
+            {
+                cost[index] = nanos;
+                rejection[index] = rejected;
+            } 
+            else 
+            {
+                cost[index] += DECAY * (nanos - cost[index]);
+                rejection[index] += DECAY * (rejected - rejection[index]);
+            }
+            accepted &= passed;
         }
-
-        blackboardStore.updateMessages(updatedMessages);
+        if (++samples % REORDER_INTERVAL == 0) 
+        {
+            reorder();
+        }
+        return accepted;
     }
 
-    public boolean execCondition(BlackboardStore blackboardStore) 
+    private void reorder() 
     {
-        return blackboardStore.areEliminatorFinished(blackboardStore.getEliminatorCounter()) && !blackboardStore.isEmpty();
+        Integer[] ranked = new Integer[filters.length];
+        for (int i = 0; i < ranked.length; i++) 
+        {
+            ranked[i] = i;
+        }
+        Arrays.sort(ranked, Comparator.comparingDouble(this::rank));
+        for (int i = 0; i < order.length; i++) 
+        {
+            order[i] = ranked[i];
+        }
     }
 
-    public boolean isEliminator() 
+    private double rank(int index) 
     {
-        return false;
+        return cost[index] / Math.max(rejection[index], 0.001);
     }
-}
 
-class LinkRemover implements KnowledgeSource 
-{
-    public void execAction(BlackboardStore blackboardStore) 
+    public String toString() 
     {
-        List<String> updatedMessages = new ArrayList<>();
-
-        for (String message : blackboardStore.getMessages()) 
+        StringBuilder builder = new StringBuilder("EliminatorOrder");
+        String separator = " ";
+        for (int index : order) 
         {
-            String newMessage = message.replace("http", "");
-            updatedMessages.add(newMessage);
+            builder.append(separator).append(String.format("%s(%.0f ns, %.1f%% rejected)", filters[index].getClass().getSimpleName(), cost[index], 100 * rejection[index]));
+            separator = " > ";
         }
+        return builder.toString();
+    }
+}
+
+class Control {
+    private static final AtomicInteger INSTANCES = new AtomicInteger();
+
+    private final BlackboardStore blackboardStore;
+    private final String instance = Integer.toString(INSTANCES.incrementAndGet());
+    private final List<KnowledgeSource> eliminators = new ArrayList<>();
+    private final List<KnowledgeSource> transformers = new ArrayList<>();
+    private final Map<KnowledgeSource, StageMetrics> metrics = new LinkedHashMap<>();
+    private boolean metricsEnabled;
+    private boolean fusion;
+    private boolean adaptive;
+    private EliminatorOrder order;
 
-        blackboardStore.updateMessages(updatedMessages);
+    public Control(BlackboardStore blackboardStore) 
+    {
+        this.blackboardStore = blackboardStore;
     }
 
-    public boolean execCondition(BlackboardStore blackboardStore) 
+    public void setMetrics(boolean metricsEnabled) 
     {
-        return blackboardStore.areEliminatorFinished(blackboardStore.getEliminatorCounter()) && !blackboardStore.isEmpty();
+        this.metricsEnabled = metricsEnabled;
     }
 
-    public boolean isEliminator() 
+    public void setFusion(boolean fusion) 
     {
-        return false;
+        this.fusion = fusion;
     }
-}
 
-class SentimentAnalyzer implements KnowledgeSource 
-{
-    public void execAction(BlackboardStore blackboardStore) 
+    public void setAdaptive(boolean adaptive) 
     {
-        List<String> updatedMessages = new ArrayList<>();
+        this.adaptive = adaptive;
+        order = null;
+    }
 
-        for (String message : blackboardStore.getMessages()) 
+    private EliminatorOrder order() 
+    {
+        if (order == null) 
         {
-            String[] words = message.split(", ");
-            if (words.length >= 3) 
-            {
-                String review = words[2];
-                int upper=0;
-                int lower=0;
-
-                for(char c:review.toCharArray())
-                {
-                    if (Character.isUpperCase(c))
-                    {
-                        upper++;
-                    }
-                    else if (Character.isLowerCase(c))
-                    {
-                        lower++;
-                    }
-                }
-                if(upper>lower)
-                {
-                    words[2]+="+";
-                }
-                else if(lower>upper)
-                {
-                    words[2]+="-";
-                }
-                else
-                {
-                    words[2]+="=";
-                }
-            }
-            updatedMessages.add(String.join(", ", words));
+            order = new EliminatorOrder(eliminators, adaptive);
         }
+        return order;
+    }
 
-        blackboardStore.updateMessages(updatedMessages);
+    public Collection<StageMetrics> getMetrics() 
+    {
+        return Collections.unmodifiableCollection(metrics.values());
     }
 
-    public boolean execCondition(BlackboardStore blackboardStore) 
+    public void printMetrics(PrintStream out) 
     {
-        return blackboardStore.areEliminatorFinished(blackboardStore.getEliminatorCounter()) && !blackboardStore.isEmpty();
+        for (StageMetrics stage : metrics.values()) 
+        {
+            out.println(stage);
+        }
+        if (metricsEnabled && adaptive && order != null) 
+        {
+            out.println(order);
+        }
     }
 
-    public boolean isEliminator() 
+    private void startMetrics() 
     {
-        return false;
+        for (StageMetrics stage : metrics.values()) 
+        {
+            stage.unregister();
+        }
+        metrics.clear();
+        if (!metricsEnabled) 
+        {
+            return;
+        }
+        List<KnowledgeSource> filters = new ArrayList<>(eliminators);
+        filters.addAll(transformers);
+        for (KnowledgeSource filter : filters) 
+        {
+            StageMetrics stage = new StageMetrics(filter.getClass().getSimpleName(), blackboardStore::size);
+            stage.register(instance);
+            metrics.put(filter, stage);
+        }
     }
-}
 
-class Control {
-    private final BlackboardStore blackboardStore;
-    private final List<KnowledgeSource> eliminators = new ArrayList<>();
-    private final List<KnowledgeSource> transformers = new ArrayList<>();
+    private void finishMetrics() 
+    {
+        for (StageMetrics stage : metrics.values()) 
+        {
+            stage.finish();
+        }
+    }
 
-    public Control(BlackboardStore blackboardStore) 
+    private void run(KnowledgeSource filter) 
     {
-        this.blackboardStore = blackboardStore;
+        StageMetrics stage = metrics.get(filter);
+        if (stage == null) 
+        {
+            filter.execAction(blackboardStore);
+            return;
+        }
+        int before = blackboardStore.size();
+        long start = System.nanoTime();
+        filter.execAction(blackboardStore);
+        stage.recordBatch(before, blackboardStore.size(), System.nanoTime() - start);
     }
 
     public void addKnowledgeSource(KnowledgeSource filter) 
@@ -290,6 +1478,7 @@ class Control {
         if (filter.isEliminator()) 
         {
             eliminators.add(filter);
+            order = null;
         } 
         else 
         {
@@ -299,24 +1488,113 @@ class Control {
 
     public void execute() 
     {
-        for (KnowledgeSource filter : eliminators) 
+        startMetrics();
+        for (KnowledgeSource filter : order().rank(blackboardStore.view())) 
         {
             if (filter.execCondition(blackboardStore)) 
             {
-                filter.execAction(blackboardStore);
+                run(filter);
             }
         }
 
         if(blackboardStore.areEliminatorFinished(eliminators.size()))
         {
+            List<KnowledgeSource> fused = new ArrayList<>();
             for (KnowledgeSource filter : transformers) 
             {
                 if (filter.execCondition(blackboardStore)) 
                 {
-                    filter.execAction(blackboardStore);
+                    if (fusion && filter.isFusable()) 
+                    {
+                        fused.add(filter);
+                        continue;
+                    }
+                    runFused(fused);
+                    run(filter);
                 }
             }
+            runFused(fused);
+        }
+        finishMetrics();
+    }
+
+    private void runFused(List<KnowledgeSource> filters) 
+    {
+        if (filters.size() == 1) 
+        {
+            run(filters.get(0));
+        }
+        else if (!filters.isEmpty()) 
+        {
+            KnowledgeSource[] chain = filters.toArray(new KnowledgeSource[0]);
+            if (metrics.isEmpty()) 
+            {
+                blackboardStore.transform(message -> 
+                {
+                    for (KnowledgeSource filter : chain) 
+                    {
+                        message = filter.transform(message);
+                    }
+                    return message;
+                });
+            }
+            else 
+            {
+                blackboardStore.transform(message -> 
+                {
+                    for (KnowledgeSource filter : chain) 
+                    {
+                        long start = System.nanoTime();
+                        message = filter.transform(message);
+                        metrics.get(filter).recordMessage(System.nanoTime() - start, true);
+                    }
+                    return message;
+                });
+            }
+        }
+        filters.clear();
+    }
+
+    public Review process(Review message) 
+    {
+        if (!order().accept(message, metrics)) 
+        {
+            return null;
+        }
+        if (!metrics.isEmpty()) 
+        {
+            return measure(message);
+        }
+        for (KnowledgeSource filter : transformers) 
+        {
+            message = filter.transform(message);
+        }
+        return message;
+    }
+
+    private Review measure(Review message) 
+    {
+        for (KnowledgeSource filter : transformers) 
+        {
+            long start = System.nanoTime();
+            message = filter.transform(message);
+            metrics.get(filter).recordMessage(System.nanoTime() - start, true);
+        }
+        return message;
+    }
+
+    public void stream(Iterator<String> lines, Consumer<Review> sink) 
+    {
+        startMetrics();
+        while (lines.hasNext()) 
+        {
+            Review message = process(Review.parse(lines.next()));
+            if (message != null) 
+            {
+                sink.accept(message);
+            }
         }
+        finishMetrics();
     }
 }
 
@@ -324,7 +1602,7 @@ public class Blackboard
 {
     public static void main(String[] args) 
     {
-        HashSet<String> buyers=new HashSet<>(Arrays.asList("John - Laptop", "Mary - Phone", "Ann - BigMac"));
+        BuyerIndex buyers=BuyerIndex.of(Arrays.asList("John - Laptop", "Mary - Phone", "Ann - BigMac"));
 
         List<String> messages= Arrays.asList(
             "John, Laptop, httpok, PICTURE",
@@ -338,13 +1616,32 @@ public class Blackboard
 
         Control controller=new Control(blackboardStore);
         
-        controller.addKnowledgeSource(new ProfanityFilter());
-        controller.addKnowledgeSource(new PoliticalFilter());
+        TermMatcher blocklist = TermMatcher.defaults();
+
+        controller.addKnowledgeSource(new ProfanityFilter(blocklist));
+        controller.addKnowledgeSource(new PoliticalFilter(blocklist));
         controller.addKnowledgeSource(new BuyerFilter(buyers));
         controller.addKnowledgeSource(new SentimentAnalyzer());
         controller.addKnowledgeSource(new ImageResizer());
         controller.addKnowledgeSource(new LinkRemover());
+        controller.setMetrics(Boolean.getBoolean("blackboard.metrics"));
+        controller.setFusion(Boolean.parseBoolean(System.getProperty("blackboard.fuse", "true")));
+        controller.setAdaptive(Boolean.parseBoolean(System.getProperty("blackboard.adaptive", "true")));
 
+        if(args.length > 0)
+        {
+            try (BufferedReader reader = Files.newBufferedReader(Paths.get(args[0]), StandardCharsets.UTF_8);
+                 PrintWriter writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8))))
+            {
+                controller.stream(reader.lines().iterator(), writer::println);
+            }
+            catch(IOException e)
+            {
+                e.printStackTrace();
+            }
+            controller.printMetrics(System.err);
+            return;
+        }
 
         blackboardStore.printMessages();
         System.out.println();
@@ -352,5 +1649,6 @@ public class Blackboard
         controller.execute();
 
         blackboardStore.printMessages();
+        controller.printMetrics(System.out);
     }   
 }
\ No newline at end of file
@@ -1,525 +1,5801 @@
 import java.io.*;
+import java.lang.invoke.*;
+import java.lang.management.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import java.util.function.*;
+import java.util.zip.*;
+import javax.management.*;
+import jdk.jfr.*;
+
+class Review
+{
+    public static final Review STOP = new Review();
+
+    private static final String SEPARATOR = ", ";
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private String buyer;
+    private String product;
+    private String text;
+    private String image;
+    private String extra;
+    private char sentiment;
+    private int matchedCategories = -1;
+    private long sequence;
+    private boolean rejected;
+    private int weight;
+    private byte[] bytes;
+    private int start;
+    private int fieldCount;
+    private int[] ends;
+    private long hash;
+    private MessageArena arena;
+
+    public static Review parse(String line)
+    {
+        Review review = new Review();
+
+        int end = line.length();
+        while(end >= SEPARATOR.length() && line.startsWith(SEPARATOR, end - SEPARATOR.length()))
+        {
+            end -= SEPARATOR.length();
+        }
+        if(end == 0 && end != line.length())
+        {
+            return review;
+        }
+
+        int start = 0;
+        for(int field = 0; field < 4; field++)
+        {
+            int next = line.indexOf(SEPARATOR, start);
+            if(next < 0 || next >= end)
+            {
+                review.setField(field, line.substring(start, end));
+                return review;
+            }
+            review.setField(field, line.substring(start, next));
+            start = next + SEPARATOR.length();
+        }
+        review.extra = line.substring(start, end);
+        return review;
+    }
+
+    public static Review wrap(byte[] bytes, int offset, int length)
+    {
+        return wrap(new Review(), bytes, offset, length);
+    }
+
+    public static Review wrap(Review review, byte[] bytes, int offset, int length)
+    {
+        if(!isWellFormed(bytes, offset, offset + length))
+        {
+            return parse(new String(bytes, offset, length, StandardCharsets.UTF_8));
+        }
+
+        review.clear();
+        review.bytes = bytes;
+        review.start = offset;
+        if(review.ends == null)
+        {
+            review.ends = new int[5];
+        }
+
+        int end = offset + length;
+        while(end - offset >= 2 && bytes[end - 2] == ',' && bytes[end - 1] == ' ')
+        {
+            end -= 2;
+        }
+        if(end == offset && length != 0)
+        {
+            return review;
+        }
+
+        int fieldStart = offset;
+        for(int field = 0; field < 4; field++)
+        {
+            int next = fieldStart;
+            while(next < end - 1 && (bytes[next] != ',' || bytes[next + 1] != ' '))
+            {
+                next++;
+            }
+            if(next >= end - 1)
+            {
+                review.ends[field] = end;
+                review.fieldCount = field + 1;
+                return review;
+            }
+            review.ends[field] = next;
+            fieldStart = next + 2;
+        }
+        review.ends[4] = end;
+        review.fieldCount = 5;
+        return review;
+    }
+
+    private void clear()
+    {
+        buyer = null;
+        product = null;
+        text = null;
+        image = null;
+        extra = null;
+        sentiment = 0;
+        matchedCategories = -1;
+        sequence = 0;
+        rejected = false;
+        weight = 0;
+        fieldCount = 0;
+        hash = 0;
+        arena = null;
+    }
+
+    public void attach(MessageArena arena)
+    {
+        this.arena = arena;
+    }
+
+    public void release()
+    {
+        MessageArena owner = arena;
+        if(owner != null)
+        {
+            arena = null;
+            owner.release();
+        }
+    }
+
+    private static boolean isWellFormed(byte[] bytes, int from, int to)
+    {
+        int i = from;
+        while(i < to)
+        {
+            int lead = bytes[i];
+            if(lead >= 0)
+            {
+                i++;
+                continue;
+            }
+
+            int length;
+            int min;
+            if((lead & 0xE0) == 0xC0)
+            {
+                length = 2;
+                min = 0x80;
+            }
+            else if((lead & 0xF0) == 0xE0)
+            {
+                length = 3;
+                min = 0x800;
+            }
+            else if((lead & 0xF8) == 0xF0)
+            {
+                length = 4;
+                min = 0x10000;
+            }
+            else
+            {
+                return false;
+            }
+            if(i + length > to)
+            {
+                return false;
+            }
+
+            int codePoint = lead & (0x7F >> length);
+            for(int k = 1; k < length; k++)
+            {
+                int next = bytes[i + k];
+                if((next & 0xC0) != 0x80)
+                {
+                    return false;
+                }
+                codePoint = (codePoint << 6) | (next & 0x3F);
+            }
+            if(codePoint < min || codePoint > Character.MAX_CODE_POINT || (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE))
+            {
+                return false;
+            }
+            i += length;
+        }
+        return true;
+    }
+
+    private void setField(int field, String value)
+    {
+        switch(field)
+        {
+            case 0: buyer = value; break;
+            case 1: product = value; break;
+            case 2: text = value; break;
+            default: image = value; break;
+        }
+    }
+
+    private void decode()
+    {
+        if(bytes == null)
+        {
+            return;
+        }
+        for(int field = 0; field < fieldCount; field++)
+        {
+            int from = getFieldStart(field);
+            String value = new String(bytes, from, ends[field] - from, StandardCharsets.UTF_8);
+            if(field < 4)
+            {
+                setField(field, value);
+            }
+            else
+            {
+                extra = value;
+            }
+        }
+        bytes = null;
+        ends = null;
+        hash = 0;
+    }
+
+    public long contentHash()
+    {
+        if(hash == 0)
+        {
+            long value = FNV_OFFSET;
+            if(bytes != null)
+            {
+                value = update(value, bytes, start, getEnd());
+                value = (value ^ fieldCount) * FNV_PRIME;
+            }
+            else
+            {
+                value = update(update(update(update(update(value, buyer), product), text), image), extra);
+            }
+            hash = finish((value ^ sentiment) * FNV_PRIME);
+        }
+        return hash;
+    }
+
+    public long textHash()
+    {
+        if(bytes != null)
+        {
+            return fieldCount < 3 || ends[2] == getFieldStart(2) ? 0 : finish(update(FNV_OFFSET, bytes, getFieldStart(2), ends[2]));
+        }
+        return text == null || text.isEmpty() ? 0 : finish(update(FNV_OFFSET, text));
+    }
+
+    public static long hashOf(byte[] bytes, int from, int to)
+    {
+        return finish(update(FNV_OFFSET, bytes, from, to));
+    }
+
+    private static long update(long hash, byte[] bytes, int from, int to)
+    {
+        for(int i = from; i < to; i++)
+        {
+            hash = (hash ^ (bytes[i] & 0xFF)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private static long update(long hash, String value)
+    {
+        if(value == null)
+        {
+            return (hash ^ 0x10000) * FNV_PRIME;
+        }
+        for(int i = 0; i < value.length(); i++)
+        {
+            hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+        }
+        return (hash ^ 0x10001) * FNV_PRIME;
+    }
+
+    private static long finish(long hash)
+    {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash == 0 ? 1 : hash;
+    }
+
+    public boolean isEncoded()
+    {
+        return bytes != null;
+    }
+
+    public byte[] getBytes()
+    {
+        return bytes;
+    }
+
+    public int getFieldCount()
+    {
+        return fieldCount;
+    }
+
+    public int getFieldStart(int field)
+    {
+        return field == 0 ? start : ends[field - 1] + 2;
+    }
+
+    public int getFieldEnd(int field)
+    {
+        return ends[field];
+    }
+
+    public int getEnd()
+    {
+        return fieldCount == 0 ? start : ends[fieldCount - 1];
+    }
+
+    public boolean lowerCaseAscii(int field)
+    {
+        int from = getFieldStart(field);
+        int to = ends[field];
+        for(int i = from; i < to; i++)
+        {
+            if(bytes[i] < 0)
+            {
+                return false;
+            }
+        }
+        for(int i = from; i < to; i++)
+        {
+            if(bytes[i] >= 'A' && bytes[i] <= 'Z')
+            {
+                bytes[i] += 'a' - 'A';
+                hash = 0;
+            }
+        }
+        return true;
+    }
+
+    public void removeAll(byte[] target)
+    {
+        hash = 0;
+        int read = start;
+        int write = start;
+        for(int field = 0; field < fieldCount; field++)
+        {
+            int end = ends[field];
+            if(field > 0)
+            {
+                bytes[write++] = ',';
+                bytes[write++] = ' ';
+                read += 2;
+            }
+            while(read < end)
+            {
+                if(read + target.length <= end && startsWith(target, read))
+                {
+                    read += target.length;
+                    continue;
+                }
+                bytes[write++] = bytes[read++];
+            }
+            ends[field] = write;
+        }
+    }
+
+    private boolean startsWith(byte[] target, int from)
+    {
+        for(int i = 0; i < target.length; i++)
+        {
+            if(bytes[from + i] != target[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int encodedLength()
+    {
+        return getEnd() - start + (sentiment != 0 && fieldCount >= 3 ? 1 : 0);
+    }
+
+    public void writeTo(ByteBuffer buffer)
+    {
+        if(sentiment != 0 && fieldCount >= 3)
+        {
+            buffer.put(bytes, start, ends[2] - start);
+            buffer.put((byte) sentiment);
+            buffer.put(bytes, ends[2], getEnd() - ends[2]);
+        }
+        else
+        {
+            buffer.put(bytes, start, getEnd() - start);
+        }
+    }
+
+    public String getBuyer()
+    {
+        decode();
+        return buyer;
+    }
+
+    public String getProduct()
+    {
+        decode();
+        return product;
+    }
+
+    public String getText()
+    {
+        decode();
+        return text;
+    }
+
+    public String getImage()
+    {
+        decode();
+        return image;
+    }
+
+    public void setImage(String image)
+    {
+        decode();
+        this.image = image;
+        this.hash = 0;
+    }
+
+    public String getExtra()
+    {
+        decode();
+        return extra;
+    }
+
+    public boolean hasExtraFields()
+    {
+        return bytes != null ? fieldCount == 5 : extra != null;
+    }
+
+    public char getSentiment()
+    {
+        return sentiment;
+    }
+
+    public String getField(int field)
+    {
+        decode();
+        switch(field)
+        {
+            case 0: return buyer;
+            case 1: return product;
+            case 2: return text;
+            case 3: return image;
+            default: return extra;
+        }
+    }
+
+    public void setSentiment(char sentiment)
+    {
+        this.sentiment = sentiment;
+        this.hash = 0;
+    }
+
+    public int getMatchedCategories()
+    {
+        return matchedCategories;
+    }
+
+    public void setMatchedCategories(int matchedCategories)
+    {
+        this.matchedCategories = matchedCategories;
+    }
+
+    public long getSequence()
+    {
+        return sequence;
+    }
+
+    public void setSequence(long sequence)
+    {
+        this.sequence = sequence;
+    }
+
+    public int getWeight()
+    {
+        return weight;
+    }
+
+    public void setWeight(int weight)
+    {
+        this.weight = weight;
+    }
+
+    public int estimateSize()
+    {
+        if(bytes != null)
+        {
+            return 104 + getEnd() - start;
+        }
+        return 64 + sizeOf(buyer) + sizeOf(product) + sizeOf(text) + sizeOf(image) + sizeOf(extra);
+    }
+
+    private static int sizeOf(String value)
+    {
+        return value == null ? 0 : 48 + 2 * value.length();
+    }
+
+    public boolean isRejected()
+    {
+        return rejected;
+    }
+
+    public void setRejected(boolean rejected)
+    {
+        this.rejected = rejected;
+    }
+
+    public void replace(String target, String replacement)
+    {
+        decode();
+        hash = 0;
+        if(buyer != null) buyer = buyer.replace(target, replacement);
+        if(product != null) product = product.replace(target, replacement);
+        if(text != null) text = text.replace(target, replacement);
+        if(image != null) image = image.replace(target, replacement);
+        if(extra != null) extra = extra.replace(target, replacement);
+    }
+
+    public String toString()
+    {
+        decode();
+        if(buyer == null)
+        {
+            return "";
+        }
+
+        StringBuilder line = new StringBuilder(buyer);
+        if(product != null)
+        {
+            line.append(SEPARATOR).append(product);
+        }
+        if(text != null)
+        {
+            line.append(SEPARATOR).append(text);
+            if(sentiment != 0)
+            {
+                line.append(sentiment);
+            }
+        }
+        if(image != null)
+        {
+            line.append(SEPARATOR).append(image);
+        }
+        if(extra != null)
+        {
+            line.append(SEPARATOR).append(extra);
+        }
+        return line.toString();
+    }
+}
+
+class TermMatcher
+{
+    public static final int PROFANITY = 1;
+    public static final int POLITICAL = 2;
+
+    private static final List<String> DEFAULT_PROFANITY_TERMS = Arrays.asList("@#$%");
+    private static final List<String> DEFAULT_POLITICAL_TERMS = Arrays.asList("---", "+++");
+    private static final String SEPARATOR = ", ";
+
+    private static final int[] UTF8_LEADS = { 0, 0xC0, 0xE0, 0xF0 };
+
+    private final int[] symbols = new int[256];
+    private final int alphabetSize;
+    private final int[] transitions;
+    private final int[] outputs;
+
+    public TermMatcher(Map<String, Integer> terms)
+    {
+        List<byte[]> keys = new ArrayList<>();
+        List<Integer> categories = new ArrayList<>();
+        int alphabet = 1;
+        long totalLength = 0;
+        for(Map.Entry<String, Integer> term : terms.entrySet())
+        {
+            byte[] key = term.getKey().getBytes(StandardCharsets.UTF_8);
+            for(byte symbol : key)
+            {
+                if(symbols[symbol & 0xFF] == 0)
+                {
+                    symbols[symbol & 0xFF] = alphabet++;
+                }
+            }
+            keys.add(key);
+            categories.add(term.getValue());
+            totalLength += key.length;
+        }
+        long size = (totalLength + 1) * alphabet;
+        if(size > Integer.MAX_VALUE - 8)
+        {
+            throw new IllegalArgumentException("Blocklist too large: " + (totalLength + 1) + " states x " + alphabet + " symbols");
+        }
+        this.alphabetSize = alphabet;
+        this.transitions = new int[(int) size];
+        this.outputs = new int[(int) totalLength + 1];
+        Arrays.fill(transitions, -1);
+
+        int states = 1;
+        for(int term = 0; term < keys.size(); term++)
+        {
+            int state = 0;
+            for(byte symbol : keys.get(term))
+            {
+                int slot = state * alphabetSize + symbols[symbol & 0xFF];
+                if(transitions[slot] < 0)
+                {
+                    transitions[slot] = states++;
+                }
+                state = transitions[slot];
+            }
+            if(state != 0)
+            {
+                outputs[state] |= categories.get(term);
+            }
+        }
+
+        int[] failure = new int[states];
+        int[] queue = new int[states];
+        int head = 0;
+        int tail = 0;
+        for(int symbol = 0; symbol < alphabetSize; symbol++)
+        {
+            int child = transitions[symbol];
+            if(child < 0)
+            {
+                transitions[symbol] = 0;
+            }
+            else
+            {
+                failure[child] = 0;
+                queue[tail++] = child;
+            }
+        }
+        while(head < tail)
+        {
+            int state = queue[head++];
+            for(int symbol = 0; symbol < alphabetSize; symbol++)
+            {
+                int slot = state * alphabetSize + symbol;
+                int fallback = transitions[failure[state] * alphabetSize + symbol];
+                int child = transitions[slot];
+                if(child < 0)
+                {
+                    transitions[slot] = fallback;
+                }
+                else
+                {
+                    failure[child] = fallback;
+                    outputs[child] |= outputs[fallback];
+                    queue[tail++] = child;
+                }
+            }
+        }
+    }
+
+    public static TermMatcher defaults()
+    {
+        Map<String, Integer> terms = new HashMap<>();
+        addTerms(terms, DEFAULT_PROFANITY_TERMS, PROFANITY);
+        addTerms(terms, DEFAULT_POLITICAL_TERMS, POLITICAL);
+        return new TermMatcher(terms);
+    }
+
+    public static TermMatcher load(String profanityFile, String politicalFile) throws IOException
+    {
+        Map<String, Integer> terms = new HashMap<>();
+        addTerms(terms, profanityFile == null ? DEFAULT_PROFANITY_TERMS : loadTerms(profanityFile), PROFANITY);
+        addTerms(terms, politicalFile == null ? DEFAULT_POLITICAL_TERMS : loadTerms(politicalFile), POLITICAL);
+        return new TermMatcher(terms);
+    }
+
+    private static void addTerms(Map<String, Integer> terms, List<String> list, int category)
+    {
+        for(String term : list)
+        {
+            terms.merge(term, category, (a, b) -> a | b);
+        }
+    }
+
+    private static List<String> loadTerms(String file) throws IOException
+    {
+        List<String> terms = new ArrayList<>();
+        for(String line : Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8))
+        {
+            if(!line.trim().isEmpty())
+            {
+                terms.add(line.trim());
+            }
+        }
+        return terms;
+    }
+
+    public boolean matches(Review review, int category)
+    {
+        int categories = review.getMatchedCategories();
+        if(categories < 0)
+        {
+            categories = review.isEncoded() ? scan(review.getBytes(), review.getFieldStart(0), review.getEnd()) : scan(review);
+            review.setMatchedCategories(categories);
+        }
+        return (categories & category) != 0;
+    }
+
+    private int scan(Review review)
+    {
+        if(review.getBuyer() == null)
+        {
+            return 0;
+        }
+        long scan = feed(0L, review.getBuyer());
+        if(review.getProduct() != null)
+        {
+            scan = feed(feed(scan, SEPARATOR), review.getProduct());
+        }
+        if(review.getText() != null)
+        {
+            scan = feed(feed(scan, SEPARATOR), review.getText());
+        }
+        if(review.getImage() != null)
+        {
+            scan = feed(feed(scan, SEPARATOR), review.getImage());
+        }
+        if(review.getExtra() != null)
+        {
+            scan = feed(feed(scan, SEPARATOR), review.getExtra());
+        }
+        return (int) (scan >>> 32);
+    }
+
+    private int scan(byte[] bytes, int from, int to)
+    {
+        int state = 0;
+        int found = 0;
+        for(int i = from; i < to; i++)
+        {
+            state = transitions[state * alphabetSize + symbols[bytes[i] & 0xFF]];
+            found |= outputs[state];
+        }
+        return found;
+    }
+
+    private long feed(long scan, String text)
+    {
+        int state = (int) scan;
+        int found = (int) (scan >>> 32);
+        for(int i = 0; i < text.length(); i++)
+        {
+            int c = text.charAt(i);
+            int tail = 0;
+            if(c >= 0x80)
+            {
+                if(c < 0x800)
+                {
+                    tail = 1;
+                }
+                else if(!Character.isSurrogate((char) c))
+                {
+                    tail = 2;
+                }
+                else if(Character.isHighSurrogate((char) c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1)))
+                {
+                    c = Character.toCodePoint((char) c, text.charAt(++i));
+                    tail = 3;
+                }
+                else
+                {
+                    c = '?';
+                }
+            }
+            state = transitions[state * alphabetSize + symbols[UTF8_LEADS[tail] | c >> 6 * tail]];
+            found |= outputs[state];
+            for(int shift = 6 * (tail - 1); shift >= 0; shift -= 6)
+            {
+                state = transitions[state * alphabetSize + symbols[0x80 | c >> shift & 0x3F]];
+                found |= outputs[state];
+            }
+        }
+        return ((long) found << 32) | state;
+    }
+}
+
+class BuyerIndex
+{
+    private static final String SEPARATOR = " - ";
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private long[] slots;
+    private int size;
+
+    public BuyerIndex(int expectedPairs)
+    {
+        int capacity = 16;
+        while(capacity * 3L < expectedPairs * 4L)
+        {
+            capacity <<= 1;
+        }
+        slots = new long[capacity];
+    }
+
+    public static BuyerIndex of(Collection<String> pairs)
+    {
+        BuyerIndex index = new BuyerIndex(pairs.size());
+        for(String pair : pairs)
+        {
+            index.add(pair);
+        }
+        return index;
+    }
+
+    public static BuyerIndex load(String file) throws IOException
+    {
+        BuyerIndex index = new BuyerIndex(1024);
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8))
+        {
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                if(!line.trim().isEmpty())
+                {
+                    index.add(line.trim());
+                }
+            }
+        }
+        return index;
+    }
+
+    public void add(String pair)
+    {
+        if(size * 4L >= slots.length * 3L)
+        {
+            resize();
+        }
+        if(insert(slots, finish(update(FNV_OFFSET, pair, 0, pair.length()))))
+        {
+            size++;
+        }
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean contains(String buyer, String product)
+    {
+        long hash = update(FNV_OFFSET, buyer, 0, buyer.length());
+        hash = update(hash, SEPARATOR, 0, SEPARATOR.length());
+        hash = update(hash, product, 0, product.length());
+        return find(finish(hash));
+    }
+
+    public boolean containsTrimmed(String buyer, String product)
+    {
+        int buyerStart = trimStart(buyer);
+        int productStart = trimStart(product);
+        long hash = update(FNV_OFFSET, buyer, buyerStart, trimEnd(buyer, buyerStart));
+        hash = update(hash, SEPARATOR, 0, SEPARATOR.length());
+        hash = update(hash, product, productStart, trimEnd(product, productStart));
+        return find(finish(hash));
+    }
+
+    public boolean containsTrimmed(byte[] bytes, int buyerFrom, int buyerTo, int productFrom, int productTo)
+    {
+        if(!isAscii(bytes, buyerFrom, buyerTo) || !isAscii(bytes, productFrom, productTo))
+        {
+            return containsTrimmed(new String(bytes, buyerFrom, buyerTo - buyerFrom, StandardCharsets.UTF_8), new String(bytes, productFrom, productTo - productFrom, StandardCharsets.UTF_8));
+        }
+        while(buyerFrom < buyerTo && bytes[buyerFrom] <= ' ') buyerFrom++;
+        while(buyerTo > buyerFrom && bytes[buyerTo - 1] <= ' ') buyerTo--;
+        while(productFrom < productTo && bytes[productFrom] <= ' ') productFrom++;
+        while(productTo > productFrom && bytes[productTo - 1] <= ' ') productTo--;
+
+        long hash = update(FNV_OFFSET, bytes, buyerFrom, buyerTo);
+        hash = update(hash, SEPARATOR, 0, SEPARATOR.length());
+        hash = update(hash, bytes, productFrom, productTo);
+        return find(finish(hash));
+    }
+
+    private static boolean isAscii(byte[] bytes, int from, int to)
+    {
+        for(int i = from; i < to; i++)
+        {
+            if(bytes[i] < 0)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean find(long hash)
+    {
+        int mask = slots.length - 1;
+        for(int slot = (int) hash & mask; slots[slot] != 0; slot = (slot + 1) & mask)
+        {
+            if(slots[slot] == hash)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean insert(long[] table, long hash)
+    {
+        int mask = table.length - 1;
+        int slot = (int) hash & mask;
+        while(table[slot] != 0)
+        {
+            if(table[slot] == hash)
+            {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = hash;
+        return true;
+    }
+
+    private void resize()
+    {
+        long[] table = new long[slots.length * 2];
+        for(long hash : slots)
+        {
+            if(hash != 0)
+            {
+                insert(table, hash);
+            }
+        }
+        slots = table;
+    }
+
+    private static long update(long hash, String text, int from, int to)
+    {
+        for(int i = from; i < to; i++)
+        {
+            hash = (hash ^ text.charAt(i)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private static long update(long hash, byte[] bytes, int from, int to)
+    {
+        for(int i = from; i < to; i++)
+        {
+            hash = (hash ^ bytes[i]) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private static long finish(long hash)
+    {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash == 0 ? 1 : hash;
+    }
+
+    private static int trimStart(String text)
+    {
+        int start = 0;
+        while(start < text.length() && text.charAt(start) <= ' ')
+        {
+            start++;
+        }
+        return start;
+    }
+
+    private static int trimEnd(String text, int start)
+    {
+        int end = text.length();
+        while(end > start && text.charAt(end - 1) <= ' ')
+        {
+            end--;
+        }
+        return end;
+    }
+}
+
+class SentimentKernel
+{
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+    private static final boolean SWAR = !"scalar".equals(System.getProperty("blackboard.sentimentKernel"));
+
+    public static char classify(String text)
+    {
+        int length = text.length();
+        int upper = 0;
+        int lower = 0;
+        for(int i = 0; i < length; i++)
+        {
+            int c = text.charAt(i);
+            if(c >= 0x80)
+            {
+                return classifySlow(text, i, upper, lower);
+            }
+            upper += isBetween(c, 'A', 'Z');
+            lower += isBetween(c, 'a', 'z');
+        }
+        return verdict(upper, lower);
+    }
+
+    public static char classify(byte[] utf8, int offset, int length)
+    {
+        int upper = 0;
+        int lower = 0;
+        int i = offset;
+        int end = offset + length;
+        if(SWAR)
+        {
+            for(; i + 8 <= end; i += 8)
+            {
+                long word = (long) LONGS.get(utf8, i);
+                if((word & HIGH_BITS) != 0) break;
+
+                upper += Long.bitCount(between(word, 'A', 'Z'));
+                lower += Long.bitCount(between(word, 'a', 'z'));
+            }
+        }
+        for(; i < end; i++)
+        {
+            int c = utf8[i];
+            if(c < 0)
+            {
+                return classifySlow(new String(utf8, i, end - i, StandardCharsets.UTF_8), 0, upper, lower);
+            }
+            upper += isBetween(c, 'A', 'Z');
+            lower += isBetween(c, 'a', 'z');
+        }
+        return verdict(upper, lower);
+    }
+
+    private static char classifySlow(String text, int from, int upper, int lower)
+    {
+        for(int i = from; i < text.length(); i++)
+        {
+            char c = text.charAt(i);
+            if(Character.isUpperCase(c))
+            {
+                upper++;
+            }
+            else if(Character.isLowerCase(c))
+            {
+                lower++;
+            }
+        }
+        return verdict(upper, lower);
+    }
+
+    private static int isBetween(int c, int low, int high)
+    {
+        return ((high - c) | (c - low)) >>> 31 ^ 1;
+    }
+
+    private static long between(long word, int low, int high)
+    {
+        long aboveLow = word + (0x80 - low) * ONES;
+        long aboveHigh = word + (0x80 - high - 1) * ONES;
+        return aboveLow & ~aboveHigh & HIGH_BITS;
+    }
+
+    private static char verdict(int upper, int lower)
+    {
+        if(upper > lower)
+        {
+            return '+';
+        }
+        if(lower > upper)
+        {
+            return '-';
+        }
+        return '=';
+    }
+}
 
 interface KnowledgeSource extends Runnable
 {
-    public boolean isEliminator();
-    public boolean execCondition(BlockingQueue<String> sharedQueue);
+    public boolean isEliminator();
+    public boolean execCondition(StageQueue input);
+    public void connect(StageQueue input, StageQueue output);
+
+    public default void setMetrics(StageMetrics metrics)
+    {
+    }
+}
+
+interface StageQueue
+{
+    public void put(Review review) throws InterruptedException;
+    public Review take() throws InterruptedException;
+    public Review poll();
+    public void flush() throws InterruptedException;
+    public void flushExpired() throws InterruptedException;
+    public CompletableFuture<Void> whenReady();
+    public int size();
+}
+
+class LinkedStageQueue implements StageQueue
+{
+    private final BlockingQueue<Review> queue;
+    private final CompletableFuture<Void> ready = new CompletableFuture<>();
+
+    public LinkedStageQueue()
+    {
+        this(0);
+    }
+
+    public LinkedStageQueue(int capacity)
+    {
+        this.queue = capacity > 0 ? new LinkedBlockingQueue<>(capacity) : new LinkedBlockingQueue<>();
+    }
+
+    public void put(Review review) throws InterruptedException
+    {
+        queue.put(review);
+        if(!ready.isDone())
+        {
+            ready.complete(null);
+        }
+    }
+
+    public Review take() throws InterruptedException
+    {
+        return queue.take();
+    }
+
+    public Review poll()
+    {
+        return queue.poll();
+    }
+
+    public int size()
+    {
+        return queue.size();
+    }
+
+    public void flush()
+    {
+    }
+
+    public void flushExpired()
+    {
+    }
+
+    public CompletableFuture<Void> whenReady()
+    {
+        return ready;
+    }
+}
+
+class BatchedStageQueue implements StageQueue
+{
+    private final BlockingQueue<List<Review>> batches;
+    private final CompletableFuture<Void> ready = new CompletableFuture<>();
+    private final int batchSize;
+    private final long flushNanos;
+
+    private List<Review> pending;
+    private long pendingSince;
+
+    private List<Review> current = Collections.emptyList();
+    private int position;
+
+    public BatchedStageQueue(int batchSize, long flushNanos)
+    {
+        this(batchSize, flushNanos, 0);
+    }
+
+    public BatchedStageQueue(int batchSize, long flushNanos, int capacity)
+    {
+        this.batchSize = batchSize;
+        this.flushNanos = flushNanos;
+        this.batches = capacity > 0 ? new LinkedBlockingQueue<>(Math.max(1, capacity / batchSize)) : new LinkedBlockingQueue<>();
+    }
+
+    public void put(Review review) throws InterruptedException
+    {
+        if(pending == null)
+        {
+            pending = new ArrayList<>(batchSize);
+            pendingSince = System.nanoTime();
+        }
+        pending.add(review);
+        if(pending.size() >= batchSize)
+        {
+            flush();
+        }
+    }
+
+    public Review take() throws InterruptedException
+    {
+        if(position == current.size())
+        {
+            current = batches.take();
+            position = 0;
+        }
+        return current.get(position++);
+    }
+
+    public Review poll()
+    {
+        if(position == current.size())
+        {
+            List<Review> next = batches.poll();
+            if(next == null)
+            {
+                return null;
+            }
+            current = next;
+            position = 0;
+        }
+        return current.get(position++);
+    }
+
+    public void flush() throws InterruptedException
+    {
+        if(pending != null)
+        {
+            batches.put(pending);
+            pending = null;
+            if(!ready.isDone())
+            {
+                ready.complete(null);
+            }
+        }
+    }
+
+    public void flushExpired() throws InterruptedException
+    {
+        if(pending != null && System.nanoTime() - pendingSince >= flushNanos)
+        {
+            flush();
+        }
+    }
+
+    public int size()
+    {
+        return batches.size() * batchSize + Math.max(0, current.size() - position);
+    }
+
+    public CompletableFuture<Void> whenReady()
+    {
+        return ready;
+    }
+}
+
+enum WaitStrategy
+{
+    SPIN
+    {
+        public void idle(int attempt)
+        {
+            Thread.onSpinWait();
+        }
+    },
+    YIELD
+    {
+        public void idle(int attempt)
+        {
+            Thread.yield();
+        }
+    },
+    PARK
+    {
+        public void idle(int attempt)
+        {
+            if(attempt < 64)
+            {
+                Thread.onSpinWait();
+            }
+            else
+            {
+                LockSupport.parkNanos(50_000L);
+            }
+        }
+    };
+
+    public abstract void idle(int attempt);
+}
+
+class RingStageQueue implements StageQueue
+{
+    private final Review[] slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong consumerSequence = new AtomicLong();
+    private final WaitStrategy waitStrategy;
+    private final CompletableFuture<Void> ready = new CompletableFuture<>();
+    private long producerSequence;
+
+    public RingStageQueue(int capacity, WaitStrategy waitStrategy)
+    {
+        int size = 2;
+        while(size < capacity)
+        {
+            size <<= 1;
+        }
+        this.slots = new Review[size];
+        this.sequences = new AtomicLongArray(size);
+        this.mask = size - 1;
+        this.waitStrategy = waitStrategy;
+
+        for(int i = 0; i < size; i++)
+        {
+            sequences.set(i, i);
+        }
+    }
+
+    public void put(Review review) throws InterruptedException
+    {
+        long sequence = producerSequence;
+        int index = (int) sequence & mask;
+        int attempt = 0;
+        while(sequences.getAcquire(index) != sequence)
+        {
+            idle(attempt++);
+        }
+        slots[index] = review;
+        sequences.setRelease(index, sequence + 1);
+        producerSequence = sequence + 1;
+        if(!ready.isDone())
+        {
+            ready.complete(null);
+        }
+    }
+
+    public Review take() throws InterruptedException
+    {
+        int attempt = 0;
+        Review review;
+        while((review = poll()) == null)
+        {
+            idle(attempt++);
+        }
+        return review;
+    }
+
+    public Review poll()
+    {
+        while(true)
+        {
+            long sequence = consumerSequence.get();
+            int index = (int) sequence & mask;
+            long published = sequences.getAcquire(index);
+            if(published < sequence + 1)
+            {
+                return null;
+            }
+            if(published == sequence + 1 && consumerSequence.compareAndSet(sequence, sequence + 1))
+            {
+                Review review = slots[index];
+                slots[index] = null;
+                sequences.setRelease(index, sequence + slots.length);
+                return review;
+            }
+        }
+    }
+
+    public void flush()
+    {
+    }
+
+    public void flushExpired()
+    {
+    }
+
+    public CompletableFuture<Void> whenReady()
+    {
+        return ready;
+    }
+
+    public int size()
+    {
+        return (int) Math.max(0, producerSequence - consumerSequence.get());
+    }
+
+    private void idle(int attempt) throws InterruptedException
+    {
+        if(Thread.interrupted())
+        {
+            throw new InterruptedException();
+        }
+        waitStrategy.idle(attempt);
+    }
+}
+
+class ReleasingStageQueue implements StageQueue
+{
+    private final StageQueue queue;
+    private final MemoryBudget budget;
+
+    public ReleasingStageQueue(StageQueue queue, MemoryBudget budget)
+    {
+        this.queue = queue;
+        this.budget = budget;
+    }
+
+    public void put(Review review) throws InterruptedException
+    {
+        queue.put(review);
+    }
+
+    public Review take() throws InterruptedException
+    {
+        return release(queue.take());
+    }
+
+    public Review poll()
+    {
+        return release(queue.poll());
+    }
+
+    public void flush() throws InterruptedException
+    {
+        queue.flush();
+    }
+
+    public void flushExpired() throws InterruptedException
+    {
+        queue.flushExpired();
+    }
+
+    public CompletableFuture<Void> whenReady()
+    {
+        return queue.whenReady();
+    }
+
+    public int size()
+    {
+        return queue.size();
+    }
+
+    private Review release(Review review)
+    {
+        if(review != null)
+        {
+            budget.release(review);
+        }
+        return review;
+    }
+}
+
+class MemoryBudget
+{
+    private final long limit;
+    private final AtomicLong used = new AtomicLong();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private volatile boolean waiting;
+
+    public MemoryBudget(long limit)
+    {
+        this.limit = limit;
+    }
+
+    public boolean tryAcquire(Review review)
+    {
+        int weight = review.estimateSize();
+        while(true)
+        {
+            long current = used.get();
+            if(current != 0 && current + weight > limit)
+            {
+                return false;
+            }
+            if(used.compareAndSet(current, current + weight))
+            {
+                review.setWeight(weight);
+                return true;
+            }
+        }
+    }
+
+    public void acquire(Review review) throws InterruptedException
+    {
+        while(!tryAcquire(review))
+        {
+            lock.lock();
+            try
+            {
+                waiting = true;
+                long current = used.get();
+                if(current != 0 && current + review.estimateSize() > limit)
+                {
+                    available.await();
+                }
+            }
+            finally
+            {
+                waiting = false;
+                lock.unlock();
+            }
+        }
+    }
+
+    public void release(Review review)
+    {
+        int weight = review.getWeight();
+        if(weight == 0)
+        {
+            return;
+        }
+        review.setWeight(0);
+        used.addAndGet(-weight);
+        if(waiting)
+        {
+            lock.lock();
+            try
+            {
+                available.signalAll();
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+    }
+
+    public long getUsed()
+    {
+        return used.get();
+    }
+
+    public long getLimit()
+    {
+        return limit;
+    }
+}
+
+class BlackboardSettings
+{
+    private String readerMode = "buffered";
+    private String executorMode = "thread";
+    private int shards = 1;
+    private String queueType = "linked";
+    private int batchSize = 1;
+    private long flushMillis = 5;
+    private int ringSize = 1 << 16;
+    private WaitStrategy waitStrategy = WaitStrategy.PARK;
+    private String profanityTerms;
+    private String politicalTerms;
+    private String buyers;
+    private boolean metrics;
+    private int queueCapacity = 8192;
+    private long memoryBudget = 64L << 20;
+    private int writeBuffer = 4 << 20;
+    private FsyncPolicy fsync = FsyncPolicy.NONE;
+    private String messagePath = "strings";
+    private String outputFormat = "text";
+    private boolean fusion = true;
+    private int cacheSize;
+    private boolean adaptive = true;
+    private int elasticThreads;
+    private boolean arena;
+    private int gzipThreads = Runtime.getRuntime().availableProcessors();
+
+    public static BlackboardSettings fromSystemProperties()
+    {
+        BlackboardSettings settings = new BlackboardSettings();
+        settings.setReaderMode(System.getProperty("blackboard.reader", settings.getReaderMode()));
+        settings.setExecutorMode(System.getProperty("blackboard.executor", settings.getExecutorMode()));
+        settings.setShards(Integer.getInteger("blackboard.shards", settings.getShards()));
+        settings.setQueueType(System.getProperty("blackboard.queue", settings.getQueueType()));
+        settings.setBatchSize(Integer.getInteger("blackboard.batchSize", settings.getBatchSize()));
+        settings.setFlushMillis(Long.getLong("blackboard.flushMillis", settings.getFlushMillis()));
+        settings.setRingSize(Integer.getInteger("blackboard.ringSize", settings.getRingSize()));
+        settings.setWaitStrategy(WaitStrategy.valueOf(System.getProperty("blackboard.wait", settings.getWaitStrategy().name()).toUpperCase()));
+        settings.setProfanityTerms(System.getProperty("blackboard.profanityTerms"));
+        settings.setPoliticalTerms(System.getProperty("blackboard.politicalTerms"));
+        settings.setBuyers(System.getProperty("blackboard.buyers"));
+        settings.setMetrics(Boolean.getBoolean("blackboard.metrics"));
+        settings.setQueueCapacity(Integer.getInteger("blackboard.queueCapacity", settings.getQueueCapacity()));
+        settings.setMemoryBudget(Long.getLong("blackboard.memoryBudget", settings.getMemoryBudget()));
+        settings.setWriteBuffer(Integer.getInteger("blackboard.writeBuffer", settings.getWriteBuffer()));
+        settings.setFsync(FsyncPolicy.valueOf(System.getProperty("blackboard.fsync", settings.getFsync().name()).toUpperCase()));
+        settings.setMessagePath(System.getProperty("blackboard.path", settings.getMessagePath()));
+        settings.setOutputFormat(System.getProperty("blackboard.format", settings.getOutputFormat()));
+        settings.setFusion(Boolean.parseBoolean(System.getProperty("blackboard.fuse", String.valueOf(settings.isFusion()))));
+        settings.setCacheSize(Integer.getInteger("blackboard.cacheSize", settings.getCacheSize()));
+        settings.setAdaptive(Boolean.parseBoolean(System.getProperty("blackboard.adaptive", String.valueOf(settings.isAdaptive()))));
+        settings.setElasticThreads(Integer.getInteger("blackboard.elasticThreads", settings.getElasticThreads()));
+        settings.setArena(Boolean.getBoolean("blackboard.arena"));
+        settings.setGzipThreads(Integer.getInteger("blackboard.gzipThreads", settings.getGzipThreads()));
+        return settings;
+    }
+
+    public String getReaderMode()
+    {
+        return readerMode;
+    }
+
+    public void setReaderMode(String readerMode)
+    {
+        this.readerMode = readerMode;
+    }
+
+    public String getExecutorMode()
+    {
+        return executorMode;
+    }
+
+    public void setExecutorMode(String executorMode)
+    {
+        this.executorMode = executorMode;
+    }
+
+    public int getShards()
+    {
+        return shards;
+    }
+
+    public void setShards(int shards)
+    {
+        this.shards = shards;
+    }
+
+    public String getQueueType()
+    {
+        return queueType;
+    }
+
+    public void setQueueType(String queueType)
+    {
+        this.queueType = queueType;
+    }
+
+    public int getBatchSize()
+    {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize)
+    {
+        this.batchSize = batchSize;
+    }
+
+    public long getFlushMillis()
+    {
+        return flushMillis;
+    }
+
+    public void setFlushMillis(long flushMillis)
+    {
+        this.flushMillis = flushMillis;
+    }
+
+    public int getRingSize()
+    {
+        return ringSize;
+    }
+
+    public void setRingSize(int ringSize)
+    {
+        this.ringSize = ringSize;
+    }
+
+    public WaitStrategy getWaitStrategy()
+    {
+        return waitStrategy;
+    }
+
+    public void setWaitStrategy(WaitStrategy waitStrategy)
+    {
+        this.waitStrategy = waitStrategy;
+    }
+
+    public String getProfanityTerms()
+    {
+        return profanityTerms;
+    }
+
+    public void setProfanityTerms(String profanityTerms)
+    {
+        this.profanityTerms = profanityTerms;
+    }
+
+    public String getPoliticalTerms()
+    {
+        return politicalTerms;
+    }
+
+    public void setPoliticalTerms(String politicalTerms)
+    {
+        this.politicalTerms = politicalTerms;
+    }
+
+    public String getBuyers()
+    {
+        return buyers;
+    }
+
+    public void setBuyers(String buyers)
+    {
+        this.buyers = buyers;
+    }
+
+    public boolean isMetrics()
+    {
+        return metrics;
+    }
+
+    public void setMetrics(boolean metrics)
+    {
+        this.metrics = metrics;
+    }
+
+    public int getQueueCapacity()
+    {
+        return queueCapacity;
+    }
+
+    public void setQueueCapacity(int queueCapacity)
+    {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public long getMemoryBudget()
+    {
+        return memoryBudget;
+    }
+
+    public void setMemoryBudget(long memoryBudget)
+    {
+        this.memoryBudget = memoryBudget;
+    }
+
+    public int getWriteBuffer()
+    {
+        return writeBuffer;
+    }
+
+    public void setWriteBuffer(int writeBuffer)
+    {
+        this.writeBuffer = writeBuffer;
+    }
+
+    public FsyncPolicy getFsync()
+    {
+        return fsync;
+    }
+
+    public void setFsync(FsyncPolicy fsync)
+    {
+        this.fsync = fsync;
+    }
+
+    public String getMessagePath()
+    {
+        return messagePath;
+    }
+
+    public String getOutputFormat()
+    {
+        return outputFormat;
+    }
+
+    public void setOutputFormat(String outputFormat)
+    {
+        this.outputFormat = outputFormat;
+    }
+
+    public void setMessagePath(String messagePath)
+    {
+        this.messagePath = messagePath;
+    }
+
+    public boolean isFusion()
+    {
+        return fusion;
+    }
+
+    public void setFusion(boolean fusion)
+    {
+        this.fusion = fusion;
+    }
+
+    public int getCacheSize()
+    {
+        return cacheSize;
+    }
+
+    public void setCacheSize(int cacheSize)
+    {
+        this.cacheSize = cacheSize;
+    }
+
+    public boolean isAdaptive()
+    {
+        return adaptive;
+    }
+
+    public void setAdaptive(boolean adaptive)
+    {
+        this.adaptive = adaptive;
+    }
+
+    public int getElasticThreads()
+    {
+        return elasticThreads;
+    }
+
+    public void setElasticThreads(int elasticThreads)
+    {
+        this.elasticThreads = elasticThreads;
+    }
+
+    public boolean isArena()
+    {
+        return arena;
+    }
+
+    public void setArena(boolean arena)
+    {
+        this.arena = arena;
+    }
+
+    public int getGzipThreads()
+    {
+        return gzipThreads;
+    }
+
+    public void setGzipThreads(int gzipThreads)
+    {
+        this.gzipThreads = gzipThreads;
+    }
+}
+
+class LruSegment extends LinkedHashMap<Long, Object>
+{
+    private static final long serialVersionUID = 1L;
+
+    private final int capacity;
+
+    public LruSegment(int capacity)
+    {
+        super(16, 0.75f, true);
+        this.capacity = capacity;
+    }
+
+    protected boolean removeEldestEntry(Map.Entry<Long, Object> eldest)
+    {
+        return size() > capacity;
+    }
+}
+
+class MemoCache
+{
+    private static final int SEGMENTS = 16;
+
+    private final List<LruSegment> segments = new ArrayList<>(SEGMENTS);
+    private final int capacity;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public MemoCache(int capacity)
+    {
+        this.capacity = capacity;
+        for(int i = 0; i < SEGMENTS; i++)
+        {
+            segments.add(new LruSegment(Math.max(1, capacity / SEGMENTS)));
+        }
+    }
+
+    public Object get(long key)
+    {
+        LruSegment segment = segments.get((int) (key >>> 60));
+        Object value;
+        synchronized(segment)
+        {
+            value = segment.get(key);
+        }
+        if(value == null)
+        {
+            misses.increment();
+        }
+        else
+        {
+            hits.increment();
+        }
+        return value;
+    }
+
+    public void put(long key, Object value)
+    {
+        LruSegment segment = segments.get((int) (key >>> 60));
+        synchronized(segment)
+        {
+            segment.put(key, value);
+        }
+    }
+
+    public long getHits()
+    {
+        return hits.sum();
+    }
+
+    public long getMisses()
+    {
+        return misses.sum();
+    }
+
+    public int size()
+    {
+        int size = 0;
+        for(LruSegment segment : segments)
+        {
+            synchronized(segment)
+            {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public String toString()
+    {
+        long hit = getHits();
+        long total = hit + getMisses();
+        return String.format("hits=%-9d misses=%-9d hitRate=%5.1f%% size=%d/%d", hit, total - hit, total == 0 ? 0.0 : 100.0 * hit / total, size(), capacity);
+    }
+}
+
+class ParallelBlackboard 
+{
+    private final BlackboardSettings settings;
+    private volatile StageQueue inputQueue;
+    private volatile StageQueue outputQueue;
+    private volatile MemoryBudget budget;
+    private final AtomicInteger eliminatorCounter = new AtomicInteger();
+    private volatile boolean transformationFlag = false;
+    private volatile boolean updatedMessage;
+
+    public ParallelBlackboard()
+    {
+        this(new BlackboardSettings());
+    }
+
+    public ParallelBlackboard(BlackboardSettings settings)
+    {
+        this.settings = settings;
+        this.budget = createBudget();
+        this.inputQueue = createEndpointQueue();
+        this.outputQueue = createOutputQueue();
+    }
+
+    public BlackboardSettings getSettings()
+    {
+        return settings;
+    }
+
+    public void reset()
+    {
+        budget = createBudget();
+        inputQueue = createEndpointQueue();
+        outputQueue = createOutputQueue();
+        eliminatorCounter.set(0);
+        transformationFlag = false;
+        updatedMessage = false;
+    }
+
+    public StageQueue getQueue()
+    {
+        return inputQueue;
+    }
+
+    public StageQueue getOutputQueue()
+    {
+        return outputQueue;
+    }
+
+    public MemoryBudget getBudget()
+    {
+        return budget;
+    }
+
+    public void admit(Review review, StageQueue queue) throws InterruptedException
+    {
+        MemoryBudget current = budget;
+        if(current != null && !current.tryAcquire(review))
+        {
+            queue.flush();
+            current.acquire(review);
+        }
+    }
+
+    public void retire(Review review)
+    {
+        MemoryBudget current = budget;
+        if(current != null)
+        {
+            current.release(review);
+        }
+        review.release();
+    }
+
+    private MemoryBudget createBudget()
+    {
+        return settings.getMemoryBudget() > 0 ? new MemoryBudget(settings.getMemoryBudget()) : null;
+    }
+
+    private StageQueue createOutputQueue()
+    {
+        StageQueue queue = createEndpointQueue();
+        return budget == null ? queue : new ReleasingStageQueue(queue, budget);
+    }
+
+    private StageQueue createEndpointQueue()
+    {
+        if("ring".equals(settings.getQueueType()))
+        {
+            return new LinkedStageQueue(settings.getQueueCapacity());
+        }
+        return createStageQueue();
+    }
+
+    public StageQueue createStageQueue()
+    {
+        if("ring".equals(settings.getQueueType()))
+        {
+            return new RingStageQueue(settings.getRingSize(), settings.getWaitStrategy());
+        }
+        if(settings.getBatchSize() > 1)
+        {
+            return new BatchedStageQueue(settings.getBatchSize(), TimeUnit.MILLISECONDS.toNanos(settings.getFlushMillis()), settings.getQueueCapacity());
+        }
+        return new LinkedStageQueue(settings.getQueueCapacity());
+    }
+
+    public void increaseEliminatorCounter() 
+    {
+        eliminatorCounter.incrementAndGet();
+    }
+
+    public boolean areEliminatorFinished(int eliminatorCount) 
+    {
+        return eliminatorCounter.get() >= eliminatorCount;
+    }
+
+    public void setTransformationFlag(boolean value) 
+    {
+        transformationFlag = value;
+    }
+
+    public boolean canTransform() 
+    {
+        return transformationFlag;
+    }
+
+    public int getEliminatorCounter()
+    {
+        return eliminatorCounter.get();
+    }
+
+    public void setUpdatedMessage(boolean value)
+    {
+        updatedMessage=value;
+    }
+
+    public boolean isUpdatedMessage()
+    {
+        return updatedMessage;
+    }
+
+    public void resetMessage()
+    {
+        updatedMessage=false;
+    }
+}
+
+class ShardDispatcher implements Runnable
+{
+    private final StageQueue input;
+    private final StageQueue[] shards;
+
+    public ShardDispatcher(StageQueue input, StageQueue[] shards)
+    {
+        this.input = input;
+        this.shards = shards;
+    }
+
+    public void run()
+    {
+        try
+        {
+            long sequence = 0;
+            while(true)
+            {
+                Review message = input.poll();
+                if(message == null)
+                {
+                    for(StageQueue shard : shards)
+                    {
+                        shard.flush();
+                    }
+                    message = input.take();
+                }
+                if(message == Review.STOP) break;
+
+                message.setSequence(sequence);
+                StageQueue shard = shards[(int) (sequence % shards.length)];
+                shard.put(message);
+                shard.flushExpired();
+                sequence++;
+            }
+            for(StageQueue shard : shards)
+            {
+                shard.put(Review.STOP);
+                shard.flush();
+            }
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
+
+class ShardWorker implements Runnable
+{
+    private final List<PipelineStage> chain;
+    private final StageQueue input;
+    private final StageQueue output;
+
+    public ShardWorker(List<PipelineStage> chain, StageQueue input, StageQueue output)
+    {
+        this.chain = chain;
+        this.input = input;
+        this.output = output;
+    }
+
+    public void run()
+    {
+        try
+        {
+            while(true)
+            {
+                Review message = input.poll();
+                if(message == null)
+                {
+                    output.flush();
+                    message = input.take();
+                }
+                if(message == Review.STOP) break;
+
+                boolean accepted = true;
+                for(int i = 0; i < chain.size() && accepted; i++)
+                {
+                    accepted = chain.get(i).apply(message);
+                }
+                message.setRejected(!accepted);
+                output.put(message);
+                output.flushExpired();
+            }
+            output.put(Review.STOP);
+            output.flush();
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
+
+class ShardMerger implements Runnable
+{
+    private final StageQueue[] shards;
+    private final StageQueue output;
+    private final ParallelBlackboard blackboard;
+
+    public ShardMerger(StageQueue[] shards, StageQueue output, ParallelBlackboard blackboard)
+    {
+        this.shards = shards;
+        this.output = output;
+        this.blackboard = blackboard;
+    }
+
+    public void run()
+    {
+        try
+        {
+            long sequence = 0;
+            while(true)
+            {
+                StageQueue shard = shards[(int) (sequence % shards.length)];
+                Review message = shard.poll();
+                if(message == null)
+                {
+                    output.flush();
+                    message = shard.take();
+                }
+                if(message == Review.STOP) break;
+
+                if(!message.isRejected())
+                {
+                    output.put(message);
+                    output.flushExpired();
+                }
+                else
+                {
+                    blackboard.retire(message);
+                }
+                sequence++;
+            }
+            output.put(Review.STOP);
+            output.flush();
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
+
+class StageExecutors
+{
+    public static Executor create(String mode)
+    {
+        if("pool".equals(mode))
+        {
+            return Executors.newCachedThreadPool();
+        }
+        if("virtual".equals(mode))
+        {
+            try
+            {
+                return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            }
+            catch(ReflectiveOperationException e)
+            {
+                throw new UnsupportedOperationException("Virtual threads need JDK 21 or newer", e);
+            }
+        }
+        return runnable -> new Thread(runnable).start();
+    }
+
+    public static void shutdown(Executor executor)
+    {
+        if(executor instanceof ExecutorService)
+        {
+            ((ExecutorService) executor).shutdown();
+        }
+    }
+}
+
+@Name("blackboard.Stage")
+@Label("Knowledge Source")
+@Category("Blackboard")
+class StageEvent extends Event
+{
+    @Label("Stage")
+    String stage;
+
+    @Label("Received")
+    long received;
+
+    @Label("Emitted")
+    long emitted;
+
+    @Label("Rejected")
+    long rejected;
+
+    @Label("Latency P50")
+    @Timespan
+    long latencyP50;
+
+    @Label("Latency P99")
+    @Timespan
+    long latencyP99;
+
+    @Label("Blocked On Take")
+    @Timespan
+    long takeBlocked;
+
+    @Label("Blocked On Put")
+    @Timespan
+    long putBlocked;
+
+    @Label("Max Queue Depth")
+    long maxQueueDepth;
+}
+
+@Name("blackboard.QueueDepth")
+@Label("Stage Queue Depth")
+@Category("Blackboard")
+@Period("1 s")
+class QueueDepthEvent extends Event
+{
+    @Label("Stage")
+    String stage;
+
+    @Label("Depth")
+    long depth;
+}
+
+class StageMetrics implements DynamicMBean
+{
+    private static final Set<StageMetrics> ACTIVE = ConcurrentHashMap.newKeySet();
+    private static final String[] ATTRIBUTES = { "Received", "Emitted", "Rejected", "LatencyP50Nanos", "LatencyP99Nanos", "LatencyMaxNanos", "TakeBlockedNanos", "PutBlockedNanos", "QueueDepth", "MaxQueueDepth" };
+
+    static
+    {
+        FlightRecorder.addPeriodicEvent(QueueDepthEvent.class, () ->
+        {
+            for(StageMetrics stage : ACTIVE)
+            {
+                QueueDepthEvent event = new QueueDepthEvent();
+                event.stage = stage.getName();
+                event.depth = stage.getQueueDepth();
+                event.commit();
+            }
+        });
+    }
+
+    private final String name;
+    private final IntSupplier depth;
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong emitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong takeBlocked = new AtomicLong();
+    private final AtomicLong putBlocked = new AtomicLong();
+    private final AtomicLong maxLatency = new AtomicLong();
+    private final AtomicLong maxDepth = new AtomicLong();
+    private final AtomicLongArray latencies = new AtomicLongArray(65);
+    private ObjectName objectName;
+
+    public StageMetrics(String name, IntSupplier depth)
+    {
+        this.name = name;
+        this.depth = depth;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public void recordMessage(long nanos, boolean accepted)
+    {
+        long count = received.incrementAndGet();
+        if(accepted)
+        {
+            emitted.incrementAndGet();
+        }
+        else
+        {
+            rejected.incrementAndGet();
+        }
+        latencies.incrementAndGet(64 - Long.numberOfLeadingZeros(nanos));
+        if(nanos > maxLatency.get())
+        {
+            maxLatency.accumulateAndGet(nanos, Math::max);
+        }
+        if((count & 1023) == 0)
+        {
+            getQueueDepth();
+        }
+    }
+
+    public void recordTake(long nanos)
+    {
+        takeBlocked.addAndGet(nanos);
+    }
+
+    public void recordPut(long nanos)
+    {
+        putBlocked.addAndGet(nanos);
+    }
+
+    public long getQueueDepth()
+    {
+        long current = depth.getAsInt();
+        if(current > maxDepth.get())
+        {
+            maxDepth.accumulateAndGet(current, Math::max);
+        }
+        return current;
+    }
+
+    public long percentile(double fraction)
+    {
+        long total = 0;
+        for(int i = 0; i < latencies.length(); i++)
+        {
+            total += latencies.get(i);
+        }
+        long target = (long) Math.ceil(total * fraction);
+        long seen = 0;
+        for(int i = 0; i < latencies.length(); i++)
+        {
+            seen += latencies.get(i);
+            if(seen >= target && seen > 0)
+            {
+                return i == 0 ? 0 : i >= 63 ? Long.MAX_VALUE : (1L << i) - 1;
+            }
+        }
+        return 0;
+    }
+
+    public void register(String control)
+    {
+        try
+        {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            Hashtable<String, String> keys = new Hashtable<>();
+            keys.put("control", control);
+            keys.put("stage", name);
+            objectName = new ObjectName("blackboard", keys);
+            if(server.isRegistered(objectName))
+            {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(this, objectName);
+        }
+        catch(JMException e)
+        {
+            e.printStackTrace();
+        }
+        ACTIVE.add(this);
+    }
+
+    public void finish()
+    {
+        ACTIVE.remove(this);
+        StageEvent event = new StageEvent();
+        if(event.shouldCommit())
+        {
+            event.stage = name;
+            event.received = received.get();
+            event.emitted = emitted.get();
+            event.rejected = rejected.get();
+            event.latencyP50 = percentile(0.5);
+            event.latencyP99 = percentile(0.99);
+            event.takeBlocked = takeBlocked.get();
+            event.putBlocked = putBlocked.get();
+            event.maxQueueDepth = maxDepth.get();
+            event.commit();
+        }
+    }
+
+    public void unregister()
+    {
+        ACTIVE.remove(this);
+        try
+        {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if(objectName != null && server.isRegistered(objectName))
+            {
+                server.unregisterMBean(objectName);
+            }
+        }
+        catch(JMException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    public Object getAttribute(String attribute) throws AttributeNotFoundException
+    {
+        switch(attribute)
+        {
+            case "Received": return received.get();
+            case "Emitted": return emitted.get();
+            case "Rejected": return rejected.get();
+            case "LatencyP50Nanos": return percentile(0.5);
+            case "LatencyP99Nanos": return percentile(0.99);
+            case "LatencyMaxNanos": return maxLatency.get();
+            case "TakeBlockedNanos": return takeBlocked.get();
+            case "PutBlockedNanos": return putBlocked.get();
+            case "QueueDepth": return getQueueDepth();
+            case "MaxQueueDepth": return maxDepth.get();
+            default: throw new AttributeNotFoundException(attribute);
+        }
+    }
+
+    public AttributeList getAttributes(String[] attributes)
+    {
+        AttributeList values = new AttributeList();
+        for(String attribute : attributes)
+        {
+            try
+            {
+                values.add(new Attribute(attribute, getAttribute(attribute)));
+            }
+            catch(AttributeNotFoundException e)
+            {
+            }
+        }
+        return values;
+    }
+
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException
+    {
+        throw new AttributeNotFoundException(attribute.getName() + " is read-only");
+    }
+
+    public AttributeList setAttributes(AttributeList attributes)
+    {
+        return new AttributeList();
+    }
+
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException
+    {
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    public MBeanInfo getMBeanInfo()
+    {
+        MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[ATTRIBUTES.length];
+        for(int i = 0; i < ATTRIBUTES.length; i++)
+        {
+            attributes[i] = new MBeanAttributeInfo(ATTRIBUTES[i], "java.lang.Long", ATTRIBUTES[i], true, false, false);
+        }
+        return new MBeanInfo(getClass().getName(), "Knowledge source " + name, attributes, null, null, null);
+    }
+
+    public String toString()
+    {
+        return String.format("%-20s in=%-9d out=%-9d rejected=%-9d p50=%-8s p99=%-8s max=%-8s take=%dms put=%dms maxDepth=%d",
+            name, received.get(), emitted.get(), rejected.get(),
+            formatNanos(percentile(0.5)), formatNanos(percentile(0.99)), formatNanos(maxLatency.get()),
+            TimeUnit.NANOSECONDS.toMillis(takeBlocked.get()), TimeUnit.NANOSECONDS.toMillis(putBlocked.get()), maxDepth.get());
+    }
+
+    private static String formatNanos(long nanos)
+    {
+        if(nanos < 10_000)
+        {
+            return nanos + "ns";
+        }
+        if(nanos < 10_000_000)
+        {
+            return TimeUnit.NANOSECONDS.toMicros(nanos) + "us";
+        }
+        return TimeUnit.NANOSECONDS.toMillis(nanos) + "ms";
+    }
+}
+
+class Control
+{
+    private static final AtomicInteger INSTANCES = new AtomicInteger();
+
+    private ParallelBlackboard blackboard = new ParallelBlackboard();
+    private final String instance = Integer.toString(INSTANCES.incrementAndGet());
+    private final List<KnowledgeSource> eliminators = new ArrayList<>();
+    private final List<KnowledgeSource> transformers = new ArrayList<>();
+    private final Executor executor;
+    private KnowledgeSource reader;
+    private KnowledgeSource writer;
+    private int shards = 1;
+    private boolean metricsEnabled;
+    private boolean fusion;
+    private int cacheSize;
+    private boolean adaptive;
+    private final List<StageMetrics> metrics = new ArrayList<>();
+    private final Map<KnowledgeSource, MemoCache> caches = new LinkedHashMap<>();
+    private final Map<List<PipelineStage>, AdaptiveStage> orders = new LinkedHashMap<>();
+    private final List<ElasticStage> elastic = new ArrayList<>();
+    private ElasticScheduler scheduler;
+    private final Set<Thread> running = new HashSet<>();
+    private final List<CompletableFuture<Void>> gates = new ArrayList<>();
+    private boolean aborted;
+    private Throwable failure;
+
+    public Control(ParallelBlackboard blackboard)
+    {
+        this(blackboard, StageExecutors.create("thread"));
+    }
+
+    public Control(ParallelBlackboard blackboard, Executor executor)
+    {
+        this.blackboard = blackboard;
+        this.executor = executor;
+    }
+
+    public void addKnowledgeSource(KnowledgeSource filter)
+    {
+        if (filter.isEliminator())
+        {
+            eliminators.add(filter);
+        }
+        else
+        {
+            transformers.add(filter);
+        }
+    }
+
+    public void setReader(KnowledgeSource reader)
+    {
+        this.reader = reader;
+    }
+
+    public void setWriter(KnowledgeSource writer)
+    {
+        this.writer = writer;
+    }
+
+    public void setShards(int shards)
+    {
+        this.shards = shards;
+    }
+
+    public void setMetrics(boolean metricsEnabled)
+    {
+        this.metricsEnabled = metricsEnabled;
+    }
+
+    public void setFusion(boolean fusion)
+    {
+        this.fusion = fusion;
+    }
+
+    public void setCacheSize(int cacheSize)
+    {
+        this.cacheSize = cacheSize;
+        caches.clear();
+    }
+
+    public void setAdaptive(boolean adaptive)
+    {
+        this.adaptive = adaptive;
+    }
+
+    public void setElasticThreads(int threads)
+    {
+        if(scheduler != null)
+        {
+            scheduler.shutdown();
+        }
+        scheduler = threads > 0 ? new ElasticScheduler(threads) : null;
+    }
+
+    public void close()
+    {
+        setElasticThreads(0);
+        for(StageMetrics stage : metrics)
+        {
+            stage.unregister();
+        }
+    }
+
+    public void printCaches(PrintStream out)
+    {
+        for(Map.Entry<KnowledgeSource, MemoCache> cache : caches.entrySet())
+        {
+            out.println(String.format("%-20s %s", cache.getKey().getClass().getSimpleName(), cache.getValue()));
+        }
+    }
+
+    public List<StageMetrics> getMetrics()
+    {
+        return Collections.unmodifiableList(metrics);
+    }
+
+    public void printMetrics(PrintStream out)
+    {
+        for(StageMetrics stage : metrics)
+        {
+            out.println(stage);
+        }
+        if(adaptive)
+        {
+            for(AdaptiveStage stage : orders.values())
+            {
+                out.println(stage);
+            }
+        }
+        for(ElasticStage stage : elastic)
+        {
+            out.println(stage);
+        }
+    }
+
+    private void instrument(KnowledgeSource filter, IntSupplier depth)
+    {
+        if(filter instanceof ElasticStage)
+        {
+            PipelineStage stage = ((ElasticStage) filter).getStage();
+            instrument(stage, depth);
+            filter.setMetrics(stage.metrics);
+            return;
+        }
+        if(filter instanceof FusedStage)
+        {
+            for(PipelineStage stage : ((FusedStage) filter).getStages())
+            {
+                instrument(stage, depth);
+            }
+        }
+        if(!metricsEnabled)
+        {
+            filter.setMetrics(null);
+            return;
+        }
+        StageMetrics stage = new StageMetrics(filter.getClass().getSimpleName(), depth);
+        stage.register(instance);
+        filter.setMetrics(stage);
+        metrics.add(stage);
+    }
+
+    private List<KnowledgeSource> fuse(List<KnowledgeSource> stages)
+    {
+        List<KnowledgeSource> fused = new ArrayList<>();
+        List<PipelineStage> run = new ArrayList<>();
+        for(KnowledgeSource filter : stages)
+        {
+            if(filter instanceof PipelineStage && !filter.isEliminator())
+            {
+                run.add((PipelineStage) filter);
+                continue;
+            }
+            addFused(run, fused);
+            fused.add(filter);
+        }
+        addFused(run, fused);
+        return fused;
+    }
+
+    private List<KnowledgeSource> adapt(List<KnowledgeSource> stages)
+    {
+        List<KnowledgeSource> adapted = new ArrayList<>();
+        List<PipelineStage> run = new ArrayList<>();
+        for(KnowledgeSource filter : stages)
+        {
+            if(filter instanceof PipelineStage && filter.isEliminator())
+            {
+                run.add((PipelineStage) filter);
+                continue;
+            }
+            addAdaptive(run, adapted);
+            adapted.add(filter);
+        }
+        addAdaptive(run, adapted);
+        return adapted;
+    }
+
+    private void addAdaptive(List<PipelineStage> run, List<KnowledgeSource> stages)
+    {
+        if(run.size() == 1)
+        {
+            stages.add(run.get(0));
+        }
+        else if(run.size() > 1)
+        {
+            stages.add(orders.computeIfAbsent(new ArrayList<>(run), AdaptiveStage::new));
+        }
+        run.clear();
+    }
+
+    private static void addFused(List<PipelineStage> run, List<KnowledgeSource> stages)
+    {
+        if(run.size() == 1)
+        {
+            stages.add(run.get(0));
+        }
+        else if(run.size() > 1)
+        {
+            stages.add(new FusedStage(run));
+        }
+        run.clear();
+    }
+
+    private boolean canShard(List<KnowledgeSource> stages)
+    {
+        if(shards < 2)
+        {
+            return false;
+        }
+        for(KnowledgeSource filter : stages)
+        {
+            if(!(filter instanceof PipelineStage))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void startShards(List<KnowledgeSource> stages, List<CompletableFuture<Void>> completions)
+    {
+        List<PipelineStage> chain = new ArrayList<>();
+        for(KnowledgeSource filter : stages)
+        {
+            chain.add((PipelineStage) filter);
+        }
+
+        StageQueue[] inputs = new StageQueue[shards];
+        StageQueue[] outputs = new StageQueue[shards];
+        for(int i = 0; i < shards; i++)
+        {
+            inputs[i] = blackboard.createStageQueue();
+            outputs[i] = blackboard.createStageQueue();
+            completions.add(launch(inputs[i], new ShardWorker(chain, inputs[i], outputs[i])));
+        }
+        for(PipelineStage filter : chain)
+        {
+            instrument(filter, () -> Arrays.stream(inputs).mapToInt(StageQueue::size).sum());
+        }
+        completions.add(launch(blackboard.getQueue(), new ShardDispatcher(blackboard.getQueue(), inputs)));
+        completions.add(launch(outputs[0], new ShardMerger(outputs, blackboard.getOutputQueue(), blackboard)));
+    }
+
+    private CompletableFuture<Void> launch(StageQueue input, Runnable stage)
+    {
+        gates.add(input.whenReady());
+        return input.whenReady().thenRunAsync(track(stage), executor);
+    }
+
+    private Runnable track(Runnable stage)
+    {
+        return () ->
+        {
+            synchronized(running)
+            {
+                if(aborted)
+                {
+                    return;
+                }
+                running.add(Thread.currentThread());
+            }
+            try
+            {
+                stage.run();
+            }
+            finally
+            {
+                synchronized(running)
+                {
+                    running.remove(Thread.currentThread());
+                    Thread.interrupted();
+                }
+            }
+        };
+    }
+
+    private void abort(Throwable cause)
+    {
+        List<CompletableFuture<Void>> pending;
+        synchronized(running)
+        {
+            if(failure == null)
+            {
+                failure = cause instanceof CompletionException && cause.getCause() != null ? cause.getCause() : cause;
+            }
+            aborted = true;
+            for(Thread thread : running)
+            {
+                thread.interrupt();
+            }
+            pending = new ArrayList<>(gates);
+        }
+        for(CompletableFuture<Void> gate : pending)
+        {
+            gate.completeExceptionally(failure);
+        }
+    }
+
+    public void execute()
+    {
+        synchronized(running)
+        {
+            aborted = false;
+            failure = null;
+            gates.clear();
+        }
+        if(reader != null)
+        {
+            blackboard.reset();
+        }
+        blackboard.resetMessage();
+        for(StageMetrics stage : metrics)
+        {
+            stage.unregister();
+        }
+        metrics.clear();
+        elastic.clear();
+
+        List<KnowledgeSource> stages = new ArrayList<>();
+        for( KnowledgeSource filter : eliminators )
+        {
+            if(filter.execCondition(blackboard.getQueue()))
+            {
+                stages.add(filter);
+            }
+        }
+        for( KnowledgeSource filter : transformers )
+        {
+            if(filter.execCondition(blackboard.getQueue()))
+            {
+                stages.add(filter);
+            }
+        }
+
+        for(KnowledgeSource filter : stages)
+        {
+            if(filter instanceof PipelineStage && ((PipelineStage) filter).isCacheable())
+            {
+                ((PipelineStage) filter).setCache(cacheSize > 0 ? caches.computeIfAbsent(filter, key -> new MemoCache(cacheSize)) : null);
+            }
+        }
+        if(adaptive)
+        {
+            stages = adapt(stages);
+        }
+        if(fusion)
+        {
+            stages = fuse(stages);
+        }
+
+        List<CompletableFuture<Void>> completions = new ArrayList<>();
+        if(reader != null)
+        {
+            reader.connect(null, blackboard.getQueue());
+            instrument(reader, blackboard.getQueue()::size);
+            completions.add(CompletableFuture.runAsync(track(reader), executor));
+        }
+
+        if(canShard(stages))
+        {
+            startShards(stages, completions);
+        }
+        else
+        {
+            StageQueue input = blackboard.getQueue();
+            for(int i = 0; i < stages.size(); i++)
+            {
+                KnowledgeSource filter = stages.get(i);
+                if(scheduler != null && filter instanceof PipelineStage)
+                {
+                    ElasticStage stage = new ElasticStage((PipelineStage) filter, scheduler);
+                    elastic.add(stage);
+                    filter = stage;
+                }
+                StageQueue output = i == stages.size() - 1 ? blackboard.getOutputQueue() : blackboard.createStageQueue();
+                filter.connect(input, output);
+                instrument(filter, input::size);
+                completions.add(launch(input, filter));
+                input = output;
+            }
+        }
+
+        if(writer != null)
+        {
+            writer.connect(blackboard.getOutputQueue(), null);
+            instrument(writer, blackboard.getOutputQueue()::size);
+            completions.add(launch(blackboard.getOutputQueue(), writer));
+        }
+
+        if(!elastic.isEmpty())
+        {
+            scheduler.start();
+        }
+        for(CompletableFuture<Void> completion : completions)
+        {
+            completion.whenComplete((ignored, cause) ->
+            {
+                if(cause != null)
+                {
+                    abort(cause);
+                }
+            });
+        }
+        try
+        {
+            CompletableFuture.allOf(completions.toArray(new CompletableFuture<?>[0])).exceptionally(cause -> null).join();
+            synchronized(running)
+            {
+                if(failure != null)
+                {
+                    throw new CompletionException(failure);
+                }
+            }
+        }
+        finally
+        {
+            if(scheduler != null)
+            {
+                scheduler.stop();
+            }
+            for(StageMetrics stage : metrics)
+            {
+                stage.finish();
+            }
+        }
+    }
+}
+
+class GzipBlockInputStream extends InputStream
+{
+    private static final int HEADER_SIZE = 12;
+    private static final int TRAILER_SIZE = 8;
+
+    private final FileChannel channel;
+    private final ExecutorService workers;
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+    private final int window;
+    private final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private long position;
+    private boolean blocksEnded;
+    private InputStream tail;
+    private byte[] block = new byte[0];
+    private int offset;
+
+    private GzipBlockInputStream(FileChannel channel, int threads)
+    {
+        this.channel = channel;
+        this.workers = Executors.newFixedThreadPool(threads, runnable ->
+        {
+            Thread thread = new Thread(runnable, "blackboard-inflater");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.window = threads * 2;
+    }
+
+    public static boolean isGzip(Path path) throws IOException
+    {
+        try(InputStream in = Files.newInputStream(path))
+        {
+            return in.read() == 0x1f && in.read() == 0x8b;
+        }
+    }
+
+    public static InputStream open(Path path, int threads) throws IOException
+    {
+        if(!isGzip(path))
+        {
+            return Files.newInputStream(path);
+        }
+        if(threads > 1)
+        {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+            GzipBlockInputStream blocks = new GzipBlockInputStream(channel, threads);
+            if(blocks.blockSize(0) > 0)
+            {
+                return blocks;
+            }
+            blocks.close();
+        }
+        return new GZIPInputStream(Files.newInputStream(path), 1 << 16);
+    }
+
+    private int blockSize(long at) throws IOException
+    {
+        header.clear();
+        while(header.hasRemaining())
+        {
+            if(channel.read(header, at + header.position()) < 0)
+            {
+                return -1;
+            }
+        }
+        if(header.get(0) != 0x1f || header.get(1) != (byte) 0x8b || header.get(2) != 8 || (header.get(3) & 4) == 0)
+        {
+            return -1;
+        }
+        int extraLength = header.getShort(10) & 0xFFFF;
+        ByteBuffer extra = ByteBuffer.allocate(extraLength).order(ByteOrder.LITTLE_ENDIAN);
+        while(extra.hasRemaining())
+        {
+            if(channel.read(extra, at + HEADER_SIZE + extra.position()) < 0)
+            {
+                return -1;
+            }
+        }
+        int field = 0;
+        while(field + 4 <= extraLength)
+        {
+            int length = extra.getShort(field + 2) & 0xFFFF;
+            if(extra.get(field) == 'B' && extra.get(field + 1) == 'C' && length == 2)
+            {
+                return (extra.getShort(field + 4) & 0xFFFF) + 1;
+            }
+            field += 4 + length;
+        }
+        return -1;
+    }
+
+    private void schedule() throws IOException
+    {
+        while(!blocksEnded && pending.size() < window)
+        {
+            int size = blockSize(position);
+            if(size < 0)
+            {
+                blocksEnded = true;
+                if(position < channel.size())
+                {
+                    tail = new GZIPInputStream(Channels.newInputStream(channel.position(position)), 1 << 16);
+                }
+                return;
+            }
+            byte[] member = new byte[size];
+            ByteBuffer target = ByteBuffer.wrap(member);
+            while(target.hasRemaining())
+            {
+                if(channel.read(target, position + target.position()) < 0)
+                {
+                    throw new EOFException("Truncated gzip block at " + position);
+                }
+            }
+            position += size;
+            pending.add(workers.submit(() -> inflate(member)));
+        }
+    }
+
+    private static byte[] inflate(byte[] member) throws IOException
+    {
+        ByteBuffer trailer = ByteBuffer.wrap(member, member.length - TRAILER_SIZE, TRAILER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        int crc = trailer.getInt();
+        byte[] output = new byte[trailer.getInt()];
+        int start = HEADER_SIZE + ((member[10] & 0xFF) | (member[11] & 0xFF) << 8);
+        Inflater inflater = new Inflater(true);
+        try
+        {
+            inflater.setInput(member, start, member.length - TRAILER_SIZE - start);
+            int inflated = 0;
+            while(inflated < output.length && !inflater.finished())
+            {
+                int count = inflater.inflate(output, inflated, output.length - inflated);
+                if(count == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                {
+                    break;
+                }
+                inflated += count;
+            }
+            CRC32 checksum = new CRC32();
+            checksum.update(output, 0, inflated);
+            if(inflated != output.length || (int) checksum.getValue() != crc)
+            {
+                throw new ZipException("Corrupt gzip block");
+            }
+            return output;
+        }
+        catch(DataFormatException e)
+        {
+            throw new ZipException(e.getMessage());
+        }
+        finally
+        {
+            inflater.end();
+        }
+    }
+
+    private boolean next() throws IOException
+    {
+        schedule();
+        if(pending.isEmpty())
+        {
+            return false;
+        }
+        try
+        {
+            block = pending.poll().get();
+            offset = 0;
+            return true;
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        catch(ExecutionException e)
+        {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+    }
+
+    public int read() throws IOException
+    {
+        byte[] single = new byte[1];
+        return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+    }
+
+    public int read(byte[] buffer, int from, int length) throws IOException
+    {
+        if(length == 0)
+        {
+            return 0;
+        }
+        while(offset == block.length)
+        {
+            if(!next())
+            {
+                return tail == null ? -1 : tail.read(buffer, from, length);
+            }
+        }
+        int count = Math.min(length, block.length - offset);
+        System.arraycopy(block, offset, buffer, from, count);
+        offset += count;
+        return count;
+    }
+
+    public void close() throws IOException
+    {
+        workers.shutdownNow();
+        if(tail != null)
+        {
+            tail.close();
+        }
+        channel.close();
+    }
+}
+
+class ReaderFilter implements KnowledgeSource
+{
+    private String inputFile;
+    private StageQueue bQueue;
+    private ParallelBlackboard blackboard;
+    private StageMetrics metrics;
+
+    public ReaderFilter(String inputFile, StageQueue bQueue, ParallelBlackboard blackboard) 
+    {
+        this.inputFile = inputFile;
+        this.bQueue = bQueue;
+        this.blackboard= blackboard;
+    }
+
+    public void run()
+    {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(GzipBlockInputStream.open(Paths.get(inputFile), blackboard.getSettings().getGzipThreads()), StandardCharsets.UTF_8))) 
+        {
+            String line;
+            while ((line = reader.readLine()) != null) 
+            {
+                if(metrics == null)
+                {
+                    Review review = Review.parse(line);
+                    blackboard.admit(review, bQueue);
+                    bQueue.put(review);
+                    continue;
+                }
+                long start = System.nanoTime();
+                Review review = Review.parse(line);
+                long parsed = System.nanoTime();
+                metrics.recordMessage(parsed - start, true);
+                blackboard.admit(review, bQueue);
+                bQueue.put(review);
+                metrics.recordPut(System.nanoTime() - parsed);
+            }
+        }
+        catch(IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            finish();
+        }
+    }
+
+    private void finish()
+    {
+        try
+        {
+            blackboard.increaseEliminatorCounter();
+            bQueue.put(Review.STOP);
+            bQueue.flush();
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void connect(StageQueue input, StageQueue output)
+    {
+        this.bQueue = output;
+    }
+
+    public void setMetrics(StageMetrics metrics)
+    {
+        this.metrics = metrics;
+    }
+
+    public boolean isEliminator()
+    {
+        return true;
+    }
+
+    public boolean execCondition(StageQueue input)
+    {
+        return true;
+    }
+}
+
+class MessageArena
+{
+    private final ArenaPool pool;
+    private final List<Review> reviews = new ArrayList<>();
+    private final List<Review> handles = new ArrayList<>();
+    private final AtomicInteger live = new AtomicInteger();
+    private byte[] bytes = new byte[0];
+    private int used;
+
+    public MessageArena(ArenaPool pool)
+    {
+        this.pool = pool;
+    }
+
+    public byte[] reserve(int length)
+    {
+        if(bytes.length < length)
+        {
+            bytes = new byte[length];
+        }
+        return bytes;
+    }
+
+    public Review wrap(int offset, int length)
+    {
+        if(used == handles.size())
+        {
+            handles.add(new Review());
+        }
+        Review handle = handles.get(used);
+        Review review = Review.wrap(handle, bytes, offset, length);
+        if(review == handle)
+        {
+            used++;
+        }
+        review.attach(this);
+        reviews.add(review);
+        return review;
+    }
+
+    public List<Review> getReviews()
+    {
+        return reviews;
+    }
+
+    public void seal()
+    {
+        live.set(reviews.size() + 1);
+    }
+
+    public void release()
+    {
+        if(live.decrementAndGet() == 0)
+        {
+            reviews.clear();
+            used = 0;
+            pool.recycle(this);
+        }
+    }
+
+    public int capacity()
+    {
+        return bytes.length;
+    }
+}
+
+class ArenaPool
+{
+    private final Queue<MessageArena> free = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger retained = new AtomicInteger();
+    private final AtomicLong allocated = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+    private final int limit;
+
+    public ArenaPool(int limit)
+    {
+        this.limit = limit;
+    }
+
+    public MessageArena acquire()
+    {
+        MessageArena arena = free.poll();
+        if(arena == null)
+        {
+            allocated.incrementAndGet();
+            return new MessageArena(this);
+        }
+        retained.decrementAndGet();
+        reused.incrementAndGet();
+        return arena;
+    }
+
+    public void recycle(MessageArena arena)
+    {
+        if(retained.incrementAndGet() > limit)
+        {
+            retained.decrementAndGet();
+            return;
+        }
+        free.offer(arena);
+    }
+
+    public long getAllocated()
+    {
+        return allocated.get();
+    }
+
+    public long getReused()
+    {
+        return reused.get();
+    }
+}
+
+class InputChunk
+{
+    private final int index;
+    private final long offset;
+    private final long length;
+    private final List<Review> reviews = new ArrayList<>();
+    private MessageArena arena;
+
+    public InputChunk(int index, long offset, long length)
+    {
+        this.index = index;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public int getIndex()
+    {
+        return index;
+    }
+
+    public long getOffset()
+    {
+        return offset;
+    }
+
+    public List<Review> getReviews()
+    {
+        return arena == null ? reviews : arena.getReviews();
+    }
+
+    public void release()
+    {
+        if(arena != null)
+        {
+            arena.release();
+            arena = null;
+        }
+    }
+
+    public InputChunk parseEncoded(FileChannel channel) throws IOException
+    {
+        return parseEncoded(channel, null);
+    }
+
+    public InputChunk parseEncoded(FileChannel channel, MessageArena arena) throws IOException
+    {
+        this.arena = arena;
+        byte[] bytes = arena == null ? new byte[(int) length] : arena.reserve((int) length);
+        ByteBuffer target = ByteBuffer.wrap(bytes, 0, (int) length);
+        while(target.hasRemaining())
+        {
+            if(channel.read(target, offset + target.position()) < 0) break;
+        }
+
+        int end = target.position();
+        int start = 0;
+        for(int i = 0; i < end; i++)
+        {
+            if(bytes[i] == '\n' || bytes[i] == '\r')
+            {
+                add(bytes, start, i - start);
+                if(bytes[i] == '\r' && i + 1 < end && bytes[i + 1] == '\n')
+                {
+                    i++;
+                }
+                start = i + 1;
+            }
+        }
+        if(start < end)
+        {
+            add(bytes, start, end - start);
+        }
+        if(arena != null)
+        {
+            arena.seal();
+        }
+        return this;
+    }
+
+    private void add(byte[] bytes, int offset, int length)
+    {
+        if(arena == null)
+        {
+            reviews.add(Review.wrap(bytes, offset, length));
+        }
+        else
+        {
+            arena.wrap(offset, length);
+        }
+    }
+
+    public InputChunk parse(FileChannel channel) throws IOException
+    {
+        MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        CharBuffer chars = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE)
+            .decode(bytes);
+
+        char[] text = chars.array();
+        int end = chars.arrayOffset() + chars.limit();
+        int start = chars.arrayOffset();
+        for(int i = start; i < end; i++)
+        {
+            if(text[i] == '\n' || text[i] == '\r')
+            {
+                reviews.add(Review.parse(new String(text, start, i - start)));
+                if(text[i] == '\r' && i + 1 < end && text[i + 1] == '\n')
+                {
+                    i++;
+                }
+                start = i + 1;
+            }
+        }
+        if(start < end)
+        {
+            reviews.add(Review.parse(new String(text, start, end - start)));
+        }
+        return this;
+    }
+}
+
+class MappedReaderFilter implements KnowledgeSource
+{
+    private static final long MIN_CHUNK_SIZE = 1L << 20;
+    private static final long MAX_CHUNK_SIZE = 64L << 20;
+
+    private String inputFile;
+    private StageQueue bQueue;
+    private ParallelBlackboard blackboard;
+    private int threads;
+    private StageMetrics metrics;
+    private ArenaPool arenas;
+
+    public MappedReaderFilter(String inputFile, StageQueue bQueue, ParallelBlackboard blackboard, int threads)
+    {
+        this.inputFile = inputFile;
+        this.bQueue = bQueue;
+        this.blackboard = blackboard;
+        this.threads = threads;
+    }
+
+    public void run()
+    {
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        boolean encoded = "bytes".equals(blackboard.getSettings().getMessagePath());
+        if(encoded && blackboard.getSettings().isArena() && arenas == null)
+        {
+            arenas = new ArenaPool(threads * 4 + 4);
+        }
+        ArenaPool pool = encoded ? arenas : null;
+        try (FileChannel channel = FileChannel.open(Paths.get(inputFile), StandardOpenOption.READ))
+        {
+            List<InputChunk> chunks = splitChunks(channel);
+            Deque<Future<InputChunk>> pending = new ArrayDeque<>();
+            int next = 0;
+
+            while(next < chunks.size() || !pending.isEmpty())
+            {
+                while(next < chunks.size() && pending.size() < threads * 2)
+                {
+                    InputChunk chunk = chunks.get(next++);
+                    MessageArena arena = pool == null ? null : pool.acquire();
+                    pending.add(workers.submit(() -> encoded ? chunk.parseEncoded(channel, arena) : chunk.parse(channel)));
+                }
+
+                InputChunk parsed = pending.poll().get();
+                for(Review review : parsed.getReviews())
+                {
+                    if(metrics == null)
+                    {
+                        blackboard.admit(review, bQueue);
+                        bQueue.put(review);
+                        continue;
+                    }
+                    long start = System.nanoTime();
+                    blackboard.admit(review, bQueue);
+                    bQueue.put(review);
+                    metrics.recordPut(System.nanoTime() - start);
+                    metrics.recordMessage(0, true);
+                }
+                parsed.release();
+            }
+        }
+        catch(IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+        catch(ExecutionException e)
+        {
+            throw new CompletionException(e.getCause());
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            workers.shutdownNow();
+            finish();
+        }
+    }
+
+    private void finish()
+    {
+        try
+        {
+            blackboard.increaseEliminatorCounter();
+            bQueue.put(Review.STOP);
+            bQueue.flush();
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private List<InputChunk> splitChunks(FileChannel channel) throws IOException
+    {
+        long size = channel.size();
+        long maxChunkSize = MAX_CHUNK_SIZE;
+        if(blackboard.getSettings().getMemoryBudget() > 0)
+        {
+            maxChunkSize = Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, blackboard.getSettings().getMemoryBudget() / (threads * 4L)));
+        }
+        long chunkSize = Math.max(MIN_CHUNK_SIZE, Math.min(maxChunkSize, size / (threads * 4L)));
+        List<InputChunk> chunks = new ArrayList<>();
+        ByteBuffer probe = ByteBuffer.allocate(4096);
+
+        long start = 0;
+        while(start < size)
+        {
+            long end = Math.min(start + chunkSize, size);
+            if(end < size)
+            {
+                end = nextLineStart(channel, end - 1, probe);
+            }
+            chunks.add(new InputChunk(chunks.size(), start, end - start));
+            start = end;
+        }
+        return chunks;
+    }
+
+    private static long nextLineStart(FileChannel channel, long position, ByteBuffer probe) throws IOException
+    {
+        while(true)
+        {
+            probe.clear();
+            int read = channel.read(probe, position);
+            if(read <= 0)
+            {
+                return channel.size();
+            }
+            for(int i = 0; i < read; i++)
+            {
+                if(probe.get(i) == '\n')
+                {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+    }
+
+    public void connect(StageQueue input, StageQueue output)
+    {
+        this.bQueue = output;
+    }
+
+    public void setMetrics(StageMetrics metrics)
+    {
+        this.metrics = metrics;
+    }
+
+    public boolean isEliminator()
+    {
+        return true;
+    }
+
+    public boolean execCondition(StageQueue input)
+    {
+        return true;
+    }
+}
+
+abstract class PipelineStage implements KnowledgeSource
+{
+    protected StageQueue input;
+    protected StageQueue output;
+    protected ParallelBlackboard blackboard;
+    protected StageMetrics metrics;
+    protected MemoCache cache;
+
+    public PipelineStage(ParallelBlackboard blackboard)
+    {
+        this.blackboard = blackboard;
+    }
+
+    public abstract boolean process(Review message);
+
+    public boolean apply(Review message)
+    {
+        if(metrics == null)
+        {
+            return evaluate(message);
+        }
+        long start = System.nanoTime();
+        boolean accepted = evaluate(message);
+        metrics.recordMessage(System.nanoTime() - start, accepted);
+        return accepted;
+    }
+
+    private boolean evaluate(Review message)
+    {
+        long key = cache == null ? 0 : cacheKey(message);
+        if(key == 0)
+        {
+            return process(message);
+        }
+        Object memo = cache.get(key);
+        if(memo != null)
+        {
+            return recall(message, memo);
+        }
+        boolean accepted = process(message);
+        cache.put(key, remember(message, accepted));
+        return accepted;
+    }
+
+    public boolean isCacheable()
+    {
+        return isEliminator();
+    }
+
+    protected long cacheKey(Review message)
+    {
+        return message.contentHash();
+    }
+
+    protected Object remember(Review message, boolean accepted)
+    {
+        return accepted;
+    }
+
+    protected boolean recall(Review message, Object memo)
+    {
+        return (Boolean) memo;
+    }
+
+    public void setCache(MemoCache cache)
+    {
+        this.cache = cache;
+    }
+
+    public void setMetrics(StageMetrics metrics)
+    {
+        this.metrics = metrics;
+    }
+
+    public void run()
+    {
+        if(!isEliminator())
+        {
+            blackboard.setTransformationFlag(true);
+        }
+        try
+        {
+            drain();
+            blackboard.setUpdatedMessage(true);
+            if(isEliminator())
+            {
+                blackboard.increaseEliminatorCounter();
+            }
+            output.put(Review.STOP);
+            output.flush();
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    protected void drain() throws InterruptedException
+    {
+        while(true)
+        {
+            Review message = input.poll();
+            if(message == null)
+            {
+                output.flush();
+                message = take();
+            }
+            if(message == Review.STOP) break;
+
+            if(apply(message))
+            {
+                put(message);
+            }
+            else
+            {
+                blackboard.retire(message);
+            }
+            output.flushExpired();
+        }
+    }
+
+    protected Review take() throws InterruptedException
+    {
+        if(metrics == null)
+        {
+            return input.take();
+        }
+        long start = System.nanoTime();
+        Review message = input.take();
+        metrics.recordTake(System.nanoTime() - start);
+        return message;
+    }
+
+    protected void put(Review message) throws InterruptedException
+    {
+        if(metrics == null)
+        {
+            output.put(message);
+            return;
+        }
+        long start = System.nanoTime();
+        output.put(message);
+        metrics.recordPut(System.nanoTime() - start);
+    }
+
+    public void connect(StageQueue input, StageQueue output)
+    {
+        this.input = input;
+        this.output = output;
+    }
+
+    public boolean execCondition(StageQueue input)
+    {
+        return !blackboard.isUpdatedMessage();
+    }
+}
+
+class ElasticChunk implements Runnable
+{
+    private final ElasticStage stage;
+    private final Review[] messages = new Review[ElasticStage.CHUNK];
+    private final boolean[] accepted = new boolean[ElasticStage.CHUNK];
+    private int size;
+    private boolean submitted;
+    private volatile boolean done;
+    private RuntimeException failure;
+
+    public ElasticChunk(ElasticStage stage)
+    {
+        this.stage = stage;
+    }
+
+    public void add(Review message)
+    {
+        messages[size++] = message;
+    }
+
+    public boolean isFull()
+    {
+        return size == messages.length;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    public boolean isDone()
+    {
+        return done;
+    }
+
+    public void submit(Executor workers)
+    {
+        submitted = true;
+        workers.execute(this);
+    }
+
+    public void run()
+    {
+        long start = System.nanoTime();
+        try
+        {
+            for(int i = 0; i < size; i++)
+            {
+                accepted[i] = stage.getStage().apply(messages[i]);
+            }
+        }
+        catch(RuntimeException e)
+        {
+            failure = e;
+        }
+        finally
+        {
+            stage.completed(size, System.nanoTime() - start, submitted);
+            done = true;
+            if(submitted)
+            {
+                stage.wakeOwner();
+            }
+        }
+    }
+
+    public void emit(ParallelBlackboard blackboard) throws InterruptedException
+    {
+        if(failure != null)
+        {
+            throw failure;
+        }
+        for(int i = 0; i < size; i++)
+        {
+            if(accepted[i])
+            {
+                stage.put(messages[i]);
+            }
+            else
+            {
+                blackboard.retire(messages[i]);
+            }
+            messages[i] = null;
+        }
+        size = 0;
+        submitted = false;
+        done = false;
+    }
+}
+
+class ElasticStage extends PipelineStage
+{
+    public static final int CHUNK = 64;
+
+    private final PipelineStage stage;
+    private final ElasticScheduler scheduler;
+    private final ArrayDeque<ElasticChunk> pending = new ArrayDeque<>();
+    private final ArrayDeque<ElasticChunk> free = new ArrayDeque<>();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicLong busyNanos = new AtomicLong();
+    private final AtomicLong processed = new AtomicLong();
+    private volatile Thread owner;
+    private volatile int replicas = 1;
+    private int peakReplicas = 1;
+    private long lastBusyNanos;
+    private long lastProcessed;
+
+    public ElasticStage(PipelineStage stage, ElasticScheduler scheduler)
+    {
+        super(stage.blackboard);
+        this.stage = stage;
+        this.scheduler = scheduler;
+    }
+
+    public PipelineStage getStage()
+    {
+        return stage;
+    }
+
+    public boolean process(Review message)
+    {
+        return stage.apply(message);
+    }
+
+    public boolean isEliminator()
+    {
+        return stage.isEliminator();
+    }
+
+    public boolean isCacheable()
+    {
+        return false;
+    }
+
+    protected void drain() throws InterruptedException
+    {
+        owner = Thread.currentThread();
+        scheduler.register(this);
+        try
+        {
+            boolean stopped = false;
+            while(!stopped)
+            {
+                Review message = input.poll();
+                if(message == null)
+                {
+                    if(!pending.isEmpty())
+                    {
+                        awaitHead();
+                        emit();
+                        continue;
+                    }
+                    output.flush();
+                    message = take();
+                }
+                ElasticChunk chunk = free.isEmpty() ? new ElasticChunk(this) : free.poll();
+                while(true)
+                {
+                    if(message == Review.STOP)
+                    {
+                        stopped = true;
+                        break;
+                    }
+                    chunk.add(message);
+                    if(chunk.isFull()) break;
+                    message = input.poll();
+                    if(message == null) break;
+                }
+                if(chunk.isEmpty())
+                {
+                    free.add(chunk);
+                }
+                else
+                {
+                    dispatch(chunk);
+                }
+                emit();
+            }
+            while(!pending.isEmpty())
+            {
+                awaitHead();
+                emit();
+            }
+        }
+        finally
+        {
+            scheduler.unregister(this);
+        }
+    }
+
+    private void dispatch(ElasticChunk chunk)
+    {
+        pending.add(chunk);
+        if(running.get() < replicas - 1)
+        {
+            running.incrementAndGet();
+            chunk.submit(scheduler.getWorkers());
+        }
+        else
+        {
+            chunk.run();
+        }
+    }
+
+    private void awaitHead() throws InterruptedException
+    {
+        ElasticChunk head = pending.peek();
+        while(!head.isDone())
+        {
+            LockSupport.park(this);
+            if(Thread.interrupted())
+            {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    private void emit() throws InterruptedException
+    {
+        while(!pending.isEmpty() && pending.peek().isDone())
+        {
+            ElasticChunk chunk = pending.poll();
+            chunk.emit(blackboard);
+            free.add(chunk);
+            output.flushExpired();
+        }
+    }
+
+    void completed(int messages, long nanos, boolean submitted)
+    {
+        busyNanos.addAndGet(nanos);
+        processed.addAndGet(messages);
+        if(submitted)
+        {
+            running.decrementAndGet();
+        }
+    }
+
+    void wakeOwner()
+    {
+        LockSupport.unpark(owner);
+    }
+
+    public int getReplicas()
+    {
+        return replicas;
+    }
+
+    public void setReplicas(int replicas)
+    {
+        this.replicas = replicas;
+        peakReplicas = Math.max(peakReplicas, replicas);
+    }
+
+    public int getDepth()
+    {
+        return input.size();
+    }
+
+    public double sampleLoad(long elapsedNanos)
+    {
+        long busy = busyNanos.get();
+        double load = (double) (busy - lastBusyNanos) / elapsedNanos;
+        lastBusyNanos = busy;
+        return load;
+    }
+
+    public double sampleServiceNanos()
+    {
+        long count = processed.get();
+        long messages = count - lastProcessed;
+        lastProcessed = count;
+        return messages == 0 ? 0 : (double) (busyNanos.get() - lastBusyNanos) / messages;
+    }
+
+    public String toString()
+    {
+        return String.format("%-20s replicas=%d peak=%d", stage.getClass().getSimpleName(), replicas, peakReplicas);
+    }
+}
+
+class ElasticScheduler
+{
+    private static final long INTERVAL_MILLIS = 20;
+    private static final double SATURATED_LOAD = 0.8;
+    private static final double IDLE_LOAD = 0.5;
+
+    private final int budget;
+    private final ThreadPoolExecutor workers;
+    private ScheduledExecutorService ticker;
+    private final List<ElasticStage> stages = new ArrayList<>();
+    private int assigned;
+    private long lastTick = System.nanoTime();
+
+    public ElasticScheduler(int budget)
+    {
+        this.budget = budget;
+        this.workers = new ThreadPoolExecutor(budget, budget, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), daemon("blackboard-replica"));
+        this.workers.allowCoreThreadTimeOut(true);
+    }
+
+    public synchronized void start()
+    {
+        if(ticker == null)
+        {
+            lastTick = System.nanoTime();
+            ticker = Executors.newSingleThreadScheduledExecutor(daemon("blackboard-scheduler"));
+            ticker.scheduleAtFixedRate(this::rebalance, INTERVAL_MILLIS, INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public synchronized void stop()
+    {
+        if(ticker != null)
+        {
+            ticker.shutdownNow();
+            ticker = null;
+        }
+    }
+
+    private static ThreadFactory daemon(String name)
+    {
+        return runnable ->
+        {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    public Executor getWorkers()
+    {
+        return workers;
+    }
+
+    public synchronized void register(ElasticStage stage)
+    {
+        stages.add(stage);
+    }
+
+    public synchronized void unregister(ElasticStage stage)
+    {
+        if(stages.remove(stage))
+        {
+            assigned -= stage.getReplicas() - 1;
+        }
+    }
+
+    public synchronized void rebalance()
+    {
+        long now = System.nanoTime();
+        long elapsed = now - lastTick;
+        lastTick = now;
+        ElasticStage bottleneck = null;
+        ElasticStage donor = null;
+        double pressure = 0;
+        double donorLoad = Double.MAX_VALUE;
+        for(ElasticStage stage : stages)
+        {
+            double service = stage.sampleServiceNanos();
+            double load = stage.sampleLoad(elapsed);
+            int replicas = stage.getReplicas();
+            if(replicas > 1 && load < (replicas - 1) * IDLE_LOAD)
+            {
+                stage.setReplicas(replicas - 1);
+                assigned--;
+                continue;
+            }
+            int depth = stage.getDepth();
+            if(load >= replicas * SATURATED_LOAD && depth >= ElasticStage.CHUNK && depth * service > pressure)
+            {
+                pressure = depth * service;
+                bottleneck = stage;
+            }
+            if(replicas > 1 && load / replicas < donorLoad)
+            {
+                donorLoad = load / replicas;
+                donor = stage;
+            }
+        }
+        if(bottleneck == null)
+        {
+            return;
+        }
+        if(assigned >= budget && donor != null && donor != bottleneck && donorLoad < SATURATED_LOAD)
+        {
+            donor.setReplicas(donor.getReplicas() - 1);
+            assigned--;
+        }
+        if(assigned < budget)
+        {
+            bottleneck.setReplicas(bottleneck.getReplicas() + 1);
+            assigned++;
+        }
+    }
+
+    public void shutdown()
+    {
+        stop();
+        workers.shutdown();
+    }
+}
+
+class FusedStage extends PipelineStage
+{
+    private final PipelineStage[] stages;
+
+    public FusedStage(List<PipelineStage> stages)
+    {
+        super(stages.get(0).blackboard);
+        this.stages = stages.toArray(new PipelineStage[0]);
+    }
+
+    public List<PipelineStage> getStages()
+    {
+        return Arrays.asList(stages);
+    }
+
+    public boolean process(Review message)
+    {
+        for(PipelineStage stage : stages)
+        {
+            if(!stage.apply(message))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean isEliminator()
+    {
+        return false;
+    }
+}
+
+class AdaptiveStage extends FusedStage
+{
+    private static final int SAMPLE_INTERVAL = 64;
+    private static final int REORDER_INTERVAL = 16;
+    private static final double DECAY = 0.05;
+
+    private final PipelineStage[] stages;
+    private final double[] cost;
+    private final double[] rejection;
+    private volatile int[] order;
+    private long samples;
+
+    public AdaptiveStage(List<PipelineStage> stages)
+    {
+        super(stages);
+        this.stages = stages.toArray(new PipelineStage[0]);
+        this.cost = new double[this.stages.length];
+        this.rejection = new double[this.stages.length];
+        this.order = new int[this.stages.length];
+        for(int i = 0; i < order.length; i++)
+        {
+            order[i] = i;
+        }
+    }
+
+    public boolean process(Review message)
+    {
+        int[] current = order;
+        if(ThreadLocalRandom.current().nextInt(SAMPLE_INTERVAL) == 0)
+        {
+            return sample(message, current);
+        }
+        for(int index : current)
+        {
+            if(!stages[index].apply(message))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean sample(Review message, int[] current)
+    {
+        long[] nanos = new long[current.length];
+        boolean[] passed = new boolean[current.length];
+        boolean accepted = true;
+        for(int i = 0; i < current.length; i++)
+        {
+            PipelineStage stage = stages[current[i]];
+            long start = System.nanoTime();
+            passed[i] = accepted ? stage.apply(message) : stage.process(message);
+            nanos[i] = System.nanoTime() - start;
+            accepted &= passed[i];
+        }
+        record(current, nanos, passed);
+        return accepted;
+    }
+
+    private synchronized void record(int[] current, long[] nanos, boolean[] passed)
+    {
+        for(int i = 0; i < current.length; i++)
+        {
+            int index = current[i];
+            double rejected = passed[i] ? 0 : 1;
+            if(samples == 0)
+            {
+                cost[index] = nanos[i];
+                rejection[index] = rejected;
+            }
+            else
+            {
+                cost[index] += DECAY * (nanos[i] - cost[index]);
+                rejection[index] += DECAY * (rejected - rejection[index]);
+            }
+        }
+        if(++samples % REORDER_INTERVAL == 0)
+        {
+            reorder();
+        }
+    }
+
+    private void reorder()
+    {
+        Integer[] ranked = new Integer[stages.length];
+        for(int i = 0; i < ranked.length; i++)
+        {
+            ranked[i] = i;
+        }
+        Arrays.sort(ranked, Comparator.comparingDouble(this::rank));
+        int[] next = new int[ranked.length];
+        for(int i = 0; i < next.length; i++)
+        {
+            next[i] = ranked[i];
+        }
+        order = next;
+    }
+
+    private double rank(int index)
+    {
+        return cost[index] / Math.max(rejection[index], 0.001);
+    }
+
+    public List<PipelineStage> getOrder()
+    {
+        List<PipelineStage> ordered = new ArrayList<>();
+        for(int index : order)
+        {
+            ordered.add(stages[index]);
+        }
+        return ordered;
+    }
+
+    public boolean isEliminator()
+    {
+        return true;
+    }
+
+    public boolean isCacheable()
+    {
+        return false;
+    }
+
+    public synchronized String toString()
+    {
+        StringBuilder builder = new StringBuilder("AdaptiveStage");
+        String separator = " ";
+        for(int index : order)
+        {
+            builder.append(separator).append(String.format("%s(%.0f ns, %.1f%% rejected)", stages[index].getClass().getSimpleName(), cost[index], 100 * rejection[index]));
+            separator = " > ";
+        }
+        return builder.toString();
+    }
+}
+
+class BuyerFilter extends PipelineStage
+{
+    private BuyerIndex buyers;
+
+    public BuyerFilter(BuyerIndex buyers, ParallelBlackboard blackboard) 
+    {
+        super(blackboard);
+        this.buyers = buyers;
+    }
+
+    public boolean process(Review message)
+    {
+        if(message.isEncoded())
+        {
+            return message.getFieldCount() >= 2 && buyers.containsTrimmed(message.getBytes(), message.getFieldStart(0), message.getFieldEnd(0), message.getFieldStart(1), message.getFieldEnd(1));
+        }
+        return message.getProduct() != null && buyers.containsTrimmed(message.getBuyer(), message.getProduct());
+    }
+
+    public boolean isEliminator()
+    {
+        return true;
+    }
+}
+
+class ProfanityFilter extends PipelineStage 
+{
+    private TermMatcher blocklist;
+
+    public ProfanityFilter(TermMatcher blocklist, ParallelBlackboard blackboard)
+    {
+        super(blackboard);
+        this.blocklist = blocklist;
+    }
+
+    public boolean process(Review message)
+    {
+        return !blocklist.matches(message, TermMatcher.PROFANITY);
+    }
+
+    public boolean isEliminator()
+    {
+        return true;
+    }
+}
+
+class PoliticalFilter extends PipelineStage
+{
+    private TermMatcher blocklist;
+
+    public PoliticalFilter (TermMatcher blocklist, ParallelBlackboard blackboard)
+    {
+        super(blackboard);
+        this.blocklist = blocklist;
+    }
+
+    public boolean process(Review message)
+    {
+        return !blocklist.matches(message, TermMatcher.POLITICAL);
+    }
+
+    public boolean isEliminator()
+    {
+        return true;
+    }
+}
+
+class ImageResizer extends PipelineStage
+{
+    private static final boolean ASCII_LOWER_CASE = !Arrays.asList("tr", "az").contains(Locale.getDefault().getLanguage());
+
+    public ImageResizer (ParallelBlackboard blackboard)
+    {
+        super(blackboard);
+    }
+
+    public boolean process(Review message)
+    {
+        if(message.isEncoded() && (message.getFieldCount() < 4 || (ASCII_LOWER_CASE && message.lowerCaseAscii(3))))
+        {
+            return true;
+        }
+        if(message.getImage() != null)
+        {
+            message.setImage(message.getImage().toLowerCase());
+        }
+        return true;
+    }
+
+    public boolean isEliminator()
+    {
+        return false;
+    }
+}
+
+class LinkRemover extends PipelineStage
+{
+    private static final byte[] LINK = "http".getBytes(StandardCharsets.US_ASCII);
+
+    public LinkRemover (ParallelBlackboard blackboard)
+    {
+        super(blackboard);
+    }
+
+    public boolean process(Review message)
+    {
+        if(message.isEncoded())
+        {
+            message.removeAll(LINK);
+            return true;
+        }
+        message.replace("http", "");
+        return true;
+    }
+
+    public boolean isEliminator()
+    {
+        return false;
+    }
+}
+
+class SentimentAnalyzer extends PipelineStage
+{
+    public SentimentAnalyzer (ParallelBlackboard blackboard)
+    {
+        super(blackboard);
+    }
+
+    public boolean process(Review message)
+    {
+        if(message.isEncoded())
+        {
+            if(message.getFieldCount() >= 3 && message.getFieldEnd(2) > message.getFieldStart(2))
+            {
+                message.setSentiment(SentimentKernel.classify(message.getBytes(), message.getFieldStart(2), message.getFieldEnd(2) - message.getFieldStart(2)));
+            }
+            return true;
+        }
+        if (message.getText() != null && !message.getText().isEmpty()) 
+        {
+            message.setSentiment(SentimentKernel.classify(message.getText()));
+        }
+        return true;
+    }
+
+    public boolean isCacheable()
+    {
+        return true;
+    }
+
+    protected long cacheKey(Review message)
+    {
+        return message.textHash();
+    }
+
+    protected Object remember(Review message, boolean accepted)
+    {
+        return message.getSentiment();
+    }
+
+    protected boolean recall(Review message, Object memo)
+    {
+        message.setSentiment((Character) memo);
+        return true;
+    }
+
+    public boolean isEliminator()
+    {
+        return false;
+    }
+}
+
+enum FsyncPolicy
+{
+    NONE, CLOSE, BUFFER
+}
+
+class GzipMember implements Callable<GzipMember>
+{
+    private static final byte[] HEADER = { 0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0 };
+    private static final int HEADER_SIZE = HEADER.length + 2;
+    private static final int TRAILER_SIZE = 8;
+
+    private final Deflater deflater;
+    private final CRC32 checksum = new CRC32();
+    private final byte[] input = new byte[GzipBlockChannel.BLOCK_SIZE];
+    private final ByteBuffer output = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+    private int length;
+
+    public GzipMember(int level)
+    {
+        this.deflater = new Deflater(level, true);
+    }
+
+    public int fill(ByteBuffer source)
+    {
+        int count = Math.min(source.remaining(), input.length - length);
+        source.get(input, length, count);
+        length += count;
+        return count;
+    }
+
+    public boolean isFull()
+    {
+        return length == input.length;
+    }
+
+    public boolean isEmpty()
+    {
+        return length == 0;
+    }
+
+    public GzipMember call() throws IOException
+    {
+        deflater.reset();
+        deflater.setInput(input, 0, length);
+        deflater.finish();
+        byte[] target = output.array();
+        int end = HEADER_SIZE;
+        while(!deflater.finished())
+        {
+            if(end == target.length - TRAILER_SIZE)
+            {
+                throw new IOException("Gzip block does not fit in " + target.length + " bytes");
+            }
+            end += deflater.deflate(target, end, target.length - TRAILER_SIZE - end);
+        }
+        checksum.reset();
+        checksum.update(input, 0, length);
+        output.clear();
+        output.put(HEADER);
+        output.putShort((short) (end + TRAILER_SIZE - 1));
+        output.position(end);
+        output.putInt((int) checksum.getValue());
+        output.putInt(length);
+        output.flip();
+        length = 0;
+        return this;
+    }
+
+    public void writeTo(WritableByteChannel channel) throws IOException
+    {
+        while(output.hasRemaining())
+        {
+            channel.write(output);
+        }
+    }
+
+    public void end()
+    {
+        deflater.end();
+    }
+}
+
+class GzipBlockChannel implements WritableByteChannel
+{
+    public static final int BLOCK_SIZE = 0xff00;
+
+    private static final byte[] EOF_BLOCK = { 0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0, 0x1b, 0, 3, 0, 0, 0, 0, 0, 0, 0, 0, 0 };
+
+    private final WritableByteChannel channel;
+    private final ExecutorService workers;
+    private final Deque<Future<GzipMember>> pending = new ArrayDeque<>();
+    private final Deque<GzipMember> free = new ArrayDeque<>();
+    private final List<GzipMember> members = new ArrayList<>();
+    private final int window;
+    private GzipMember current;
+    private boolean open = true;
+
+    public GzipBlockChannel(WritableByteChannel channel, int threads, int level)
+    {
+        this.channel = channel;
+        this.window = threads * 2;
+        this.workers = Executors.newFixedThreadPool(threads, runnable ->
+        {
+            Thread thread = new Thread(runnable, "blackboard-deflater");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for(int i = 0; i <= window; i++)
+        {
+            GzipMember member = new GzipMember(level);
+            members.add(member);
+            free.add(member);
+        }
+        current = free.poll();
+    }
+
+    public int write(ByteBuffer source) throws IOException
+    {
+        int written = source.remaining();
+        while(source.hasRemaining())
+        {
+            current.fill(source);
+            if(current.isFull())
+            {
+                submit();
+            }
+        }
+        return written;
+    }
+
+    private void submit() throws IOException
+    {
+        pending.add(workers.submit(current));
+        while(free.isEmpty())
+        {
+            drain();
+        }
+        current = free.poll();
+    }
+
+    private void drain() throws IOException
+    {
+        try
+        {
+            GzipMember member = pending.poll().get();
+            member.writeTo(channel);
+            free.add(member);
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        catch(ExecutionException e)
+        {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+    }
+
+    public boolean isOpen()
+    {
+        return open;
+    }
+
+    public void close() throws IOException
+    {
+        if(!open)
+        {
+            return;
+        }
+        open = false;
+        try
+        {
+            if(!current.isEmpty())
+            {
+                pending.add(workers.submit(current));
+            }
+            while(!pending.isEmpty())
+            {
+                drain();
+            }
+            ByteBuffer eof = ByteBuffer.wrap(EOF_BLOCK);
+            while(eof.hasRemaining())
+            {
+                channel.write(eof);
+            }
+        }
+        finally
+        {
+            workers.shutdownNow();
+            for(GzipMember member : members)
+            {
+                member.end();
+            }
+        }
+    }
 }
 
-class ParallelBlackboard 
+class ChannelFlusher implements Runnable
 {
-    private BlockingQueue<String> sharedQueue = new LinkedBlockingQueue<>();
-    private int eliminatorCounter = 0;
-    private boolean transformationFlag = false;
-    private boolean updatedMessage;
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    private final FileChannel channel;
+    private final WritableByteChannel target;
+    private final FsyncPolicy fsync;
+    private final BlockingQueue<ByteBuffer> full = new ArrayBlockingQueue<>(2);
+    private final BlockingQueue<ByteBuffer> empty = new ArrayBlockingQueue<>(2);
+    private final Thread thread;
+    private volatile IOException failure;
 
-    public BlockingQueue<String> getQueue()
+    public ChannelFlusher(FileChannel channel, FsyncPolicy fsync, int bufferSize)
     {
-        return sharedQueue;
+        this(channel, channel, fsync, bufferSize);
     }
 
-    public synchronized void increaseEliminatorCounter() 
+    public ChannelFlusher(FileChannel channel, WritableByteChannel target, FsyncPolicy fsync, int bufferSize)
     {
-        eliminatorCounter++;
+        this.channel = channel;
+        this.target = target;
+        this.fsync = fsync;
+        this.empty.add(ByteBuffer.allocateDirect(bufferSize));
+        this.thread = new Thread(this, "blackboard-flusher");
+        this.thread.setDaemon(true);
+        this.thread.start();
     }
 
-    public synchronized boolean areEliminatorFinished(int eliminatorCount) 
+    public void run()
     {
-        return eliminatorCounter >= eliminatorCount;
+        try
+        {
+            while(true)
+            {
+                ByteBuffer buffer = full.take();
+                if(buffer == END)
+                {
+                    finish();
+                    break;
+                }
+
+                try
+                {
+                    if(failure == null)
+                    {
+                        while(buffer.hasRemaining())
+                        {
+                            target.write(buffer);
+                        }
+                        if(fsync == FsyncPolicy.BUFFER)
+                        {
+                            channel.force(false);
+                        }
+                    }
+                }
+                catch(IOException e)
+                {
+                    failure = e;
+                }
+                buffer.clear();
+                empty.put(buffer);
+            }
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
     }
 
-    public synchronized void setTransformationFlag(boolean value) 
+    private void finish()
     {
-        transformationFlag = value;
+        if(target == channel)
+        {
+            return;
+        }
+        try
+        {
+            target.close();
+        }
+        catch(IOException e)
+        {
+            if(failure == null)
+            {
+                failure = e;
+            }
+        }
     }
 
-    public synchronized boolean canTransform() 
+    public boolean isIdle()
     {
-        return transformationFlag;
+        return !empty.isEmpty();
     }
 
-    public synchronized int getEliminatorCounter()
+    public ByteBuffer swap(ByteBuffer buffer) throws IOException, InterruptedException
     {
-        return eliminatorCounter;
+        buffer.flip();
+        full.put(buffer);
+        ByteBuffer next = empty.take();
+        check();
+        return next;
     }
 
-    public synchronized void setUpdatedMessage(boolean value)
+    public void close(ByteBuffer buffer) throws IOException, InterruptedException
     {
-        updatedMessage=value;
+        buffer.flip();
+        full.put(buffer);
+        full.put(END);
+        thread.join();
+        check();
+        if(fsync != FsyncPolicy.NONE)
+        {
+            channel.force(true);
+        }
     }
 
-    public synchronized boolean isUpdatedMessage()
+    public void stop()
     {
-        return updatedMessage;
+        thread.interrupt();
     }
 
-    public synchronized void resetMessage()
+    private void check() throws IOException
     {
-        updatedMessage=false;
+        if(failure != null)
+        {
+            throw failure;
+        }
     }
 }
 
-class Control
+class WriterFilter implements KnowledgeSource
 {
-    private ParallelBlackboard blackboard = new ParallelBlackboard();
-    private final List<KnowledgeSource> eliminators = new ArrayList<>();
-    private final List<KnowledgeSource> transformers = new ArrayList<>();
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
 
-    
-    public Control(ParallelBlackboard blackboard)
+    private StageQueue bQueue;
+    private String outputFile;
+    private StageMetrics metrics;
+    private int bufferSize;
+    private FsyncPolicy fsync;
+    private int gzipThreads;
+    private boolean stopped;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    public WriterFilter(StageQueue bQueue, String outputFile)
     {
-        this.blackboard = blackboard;
+        this(bQueue, outputFile, 4 << 20, FsyncPolicy.NONE);
     }
 
-    public void addKnowledgeSource(KnowledgeSource filter)
+    public WriterFilter(StageQueue bQueue, String outputFile, int bufferSize, FsyncPolicy fsync)
     {
-        if (filter.isEliminator())
+        this(bQueue, outputFile, bufferSize, fsync, Runtime.getRuntime().availableProcessors());
+    }
+
+    public WriterFilter(StageQueue bQueue, String outputFile, int bufferSize, FsyncPolicy fsync, int gzipThreads)
+    {
+        this.bQueue=bQueue;
+        this.outputFile=outputFile;
+        this.bufferSize=bufferSize;
+        this.fsync=fsync;
+        this.gzipThreads=gzipThreads;
+    }
+
+    public void run()
+    {
+        stopped = false;
+        try(FileChannel channel = FileChannel.open(Paths.get(outputFile), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
         {
-            eliminators.add(filter);
+            WritableByteChannel target = outputFile.endsWith(".gz") ? new GzipBlockChannel(channel, Math.max(1, gzipThreads), Deflater.DEFAULT_COMPRESSION) : channel;
+            ChannelFlusher flusher = new ChannelFlusher(channel, target, fsync, bufferSize);
+            try
+            {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize);
+                while(true)
+                {
+                    Review message = bQueue.poll();
+                    if(message == null)
+                    {
+                        if(buffer.position() > 0 && flusher.isIdle())
+                        {
+                            buffer = flusher.swap(buffer);
+                        }
+                        message = take();
+                    }
+                    if(message == Review.STOP)
+                    {
+                        stopped = true;
+                        break;
+                    }
+
+                    long start = metrics == null ? 0 : System.nanoTime();
+                    if(message.isEncoded())
+                    {
+                        buffer = write(message, buffer, flusher);
+                    }
+                    else
+                    {
+                        buffer = write(message.toString(), buffer, flusher);
+                    }
+                    message.release();
+                    if(metrics != null)
+                    {
+                        metrics.recordMessage(System.nanoTime() - start, true);
+                    }
+                }
+                flusher.close(buffer);
+            }
+            finally
+            {
+                flusher.stop();
+            }
         }
-        else
+        catch (IOException e)
         {
-            transformers.add(filter);
+            e.printStackTrace();
+            discard();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
         }
     }
 
-    public void execute()
+    private void discard()
     {
-        List<Thread> threads = new ArrayList<>();
-
-        for( KnowledgeSource filter : eliminators )
+        try
         {
-            if(filter.execCondition(blackboard.getQueue()))
+            while(!stopped)
             {
-                Thread thread = new Thread(filter);
-                thread.start();
-                threads.add(thread);
+                Review message = bQueue.take();
+                stopped = message == Review.STOP;
+                message.release();
             }
         }
-
-        try 
-        {
-            Thread.sleep(200);
-        } 
-        catch (InterruptedException e) 
+        catch(InterruptedException e)
         {
             Thread.currentThread().interrupt();
         }
+    }
 
-        blackboard.resetMessage();
+    private Review take() throws InterruptedException
+    {
+        if(metrics == null)
+        {
+            return bQueue.take();
+        }
+        long start = System.nanoTime();
+        Review message = bQueue.take();
+        metrics.recordTake(System.nanoTime() - start);
+        return message;
+    }
 
-        if(blackboard.areEliminatorFinished(eliminators.size()))
+    private ByteBuffer write(Review message, ByteBuffer buffer, ChannelFlusher flusher) throws IOException, InterruptedException
+    {
+        int length = message.encodedLength() + LINE_SEPARATOR.length;
+        if(buffer.remaining() < length)
         {
-            for( KnowledgeSource filter : transformers )
+            buffer = flusher.swap(buffer);
+            if(buffer.remaining() < length)
             {
-                if(filter.execCondition(blackboard.getQueue()))
-                {
-                    Thread thread = new Thread(filter);
-                    thread.start();
-                    threads.add(thread);
-                }
+                return write(message.toString(), buffer, flusher);
+            }
+        }
+        message.writeTo(buffer);
+        buffer.put(LINE_SEPARATOR);
+        return buffer;
+    }
+
+    private ByteBuffer write(String line, ByteBuffer buffer, ChannelFlusher flusher) throws IOException, InterruptedException
+    {
+        long worstCase = (long) line.length() * 3 + LINE_SEPARATOR.length;
+        if(buffer.remaining() < worstCase)
+        {
+            buffer = flusher.swap(buffer);
+        }
+        if(buffer.remaining() < worstCase)
+        {
+            buffer = encode(CharBuffer.wrap(line), buffer, flusher);
+            if(buffer.remaining() < LINE_SEPARATOR.length)
+            {
+                buffer = flusher.swap(buffer);
             }
+            buffer.put(LINE_SEPARATOR);
+            return buffer;
         }
 
-        for(Thread thread : threads)
+        int length = line.length();
+        for(int i = 0; i < length; i++)
         {
-            try 
+            char c = line.charAt(i);
+            if(c >= 0x80)
             {
-                thread.join();
+                buffer = encode(CharBuffer.wrap(line, i, length), buffer, flusher);
+                break;
             }
-            catch(InterruptedException e) 
+            buffer.put((byte) c);
+        }
+        buffer.put(LINE_SEPARATOR);
+        return buffer;
+    }
+
+    private ByteBuffer encode(CharBuffer chars, ByteBuffer buffer, ChannelFlusher flusher) throws IOException, InterruptedException
+    {
+        encoder.reset();
+        while(encoder.encode(chars, buffer, true).isOverflow())
+        {
+            buffer = flusher.swap(buffer);
+        }
+        while(encoder.flush(buffer).isOverflow())
+        {
+            buffer = flusher.swap(buffer);
+        }
+        return buffer;
+    }
+
+    public void connect(StageQueue input, StageQueue output)
+    {
+        this.bQueue = input;
+    }
+
+    public void setMetrics(StageMetrics metrics)
+    {
+        this.metrics = metrics;
+    }
+
+    public boolean isEliminator()
+    {
+        return false;
+    }
+
+    public boolean execCondition(StageQueue input)
+    {
+        return true;
+    }
+}
+
+class Postings
+{
+    private long[] offsets = new long[4];
+    private int size;
+
+    public void add(long offset)
+    {
+        if(size == offsets.length)
+        {
+            offsets = Arrays.copyOf(offsets, size * 2);
+        }
+        offsets[size++] = offset;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public long get(int index)
+    {
+        return offsets[index];
+    }
+}
+
+class ReviewIndexBuilder
+{
+    private final Map<Long, Postings> postings = new HashMap<>();
+    private long entries;
+
+    public void add(long hash, long offset)
+    {
+        postings.computeIfAbsent(hash, key -> new Postings()).add(offset);
+        entries++;
+    }
+
+    public int keys()
+    {
+        return postings.size();
+    }
+
+    public void writeKeys(DataOutputStream out, long first) throws IOException
+    {
+        for(long hash : sortedKeys())
+        {
+            Postings offsets = postings.get(hash);
+            out.writeLong(hash);
+            out.writeLong(first);
+            out.writeLong(offsets.size());
+            first += offsets.size();
+        }
+    }
+
+    public void writePostings(DataOutputStream out) throws IOException
+    {
+        for(long hash : sortedKeys())
+        {
+            Postings offsets = postings.get(hash);
+            for(int i = 0; i < offsets.size(); i++)
             {
-                Thread.currentThread().interrupt();
+                out.writeLong(offsets.get(i));
             }
         }
     }
+
+    public long entries()
+    {
+        return entries;
+    }
+
+    private List<Long> sortedKeys()
+    {
+        List<Long> keys = new ArrayList<>(postings.keySet());
+        Collections.sort(keys);
+        return keys;
+    }
 }
 
-class ReaderFilter implements KnowledgeSource
+class BinaryWriterFilter implements KnowledgeSource
 {
-    private String inputFile;
-    private BlockingQueue<String> bQueue;
-    private ParallelBlackboard blackboard;
+    private StageQueue bQueue;
+    private String outputFile;
+    private StageMetrics metrics;
+    private int bufferSize;
+    private FsyncPolicy fsync;
+    private ReviewIndexBuilder buyers;
+    private ReviewIndexBuilder products;
+    private long position;
+    private long records;
+    private boolean stopped;
 
-    public ReaderFilter(String inputFile, BlockingQueue<String> bQueue, ParallelBlackboard blackboard) 
+    public BinaryWriterFilter(StageQueue bQueue, String outputFile)
     {
-        this.inputFile = inputFile;
-        this.bQueue = bQueue;
-        this.blackboard= blackboard;
+        this(bQueue, outputFile, 4 << 20, FsyncPolicy.NONE);
+    }
+
+    public BinaryWriterFilter(StageQueue bQueue, String outputFile, int bufferSize, FsyncPolicy fsync)
+    {
+        this.bQueue=bQueue;
+        this.outputFile=outputFile;
+        this.bufferSize=bufferSize;
+        this.fsync=fsync;
+    }
+
+    public void run()
+    {
+        buyers = new ReviewIndexBuilder();
+        products = new ReviewIndexBuilder();
+        records = 0;
+        stopped = false;
+        try(FileChannel channel = FileChannel.open(Paths.get(outputFile), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            ChannelFlusher flusher = new ChannelFlusher(channel, fsync, bufferSize);
+            try
+            {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(Math.max(bufferSize, ReviewFile.HEADER_SIZE));
+                buffer.putInt(ReviewFile.MAGIC);
+                buffer.putInt(ReviewFile.VERSION);
+                position = ReviewFile.HEADER_SIZE;
+                while(true)
+                {
+                    Review message = bQueue.poll();
+                    if(message == null)
+                    {
+                        if(buffer.position() > 0 && flusher.isIdle())
+                        {
+                            buffer = flusher.swap(buffer);
+                        }
+                        message = take();
+                    }
+                    if(message == Review.STOP)
+                    {
+                        stopped = true;
+                        break;
+                    }
+
+                    long start = metrics == null ? 0 : System.nanoTime();
+                    buffer = write(message, buffer, flusher);
+                    message.release();
+                    if(metrics != null)
+                    {
+                        metrics.recordMessage(System.nanoTime() - start, true);
+                    }
+                }
+                flusher.close(buffer);
+            }
+            finally
+            {
+                flusher.stop();
+            }
+            writeIndex(Paths.get(outputFile + ReviewFile.INDEX_SUFFIX));
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            discard();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void discard()
+    {
+        try
+        {
+            while(!stopped)
+            {
+                Review message = bQueue.take();
+                stopped = message == Review.STOP;
+                message.release();
+            }
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Review take() throws InterruptedException
+    {
+        if(metrics == null)
+        {
+            return bQueue.take();
+        }
+        long start = System.nanoTime();
+        Review message = bQueue.take();
+        metrics.recordTake(System.nanoTime() - start);
+        return message;
     }
 
-    public void run()
-    {
-        try (BufferedReader reader = new BufferedReader(new FileReader(inputFile))) 
+    private ByteBuffer write(Review message, ByteBuffer buffer, ChannelFlusher flusher) throws IOException, InterruptedException
+    {
+        byte[] bytes;
+        int[] from = new int[5];
+        int[] to = new int[5];
+        int count;
+        if(message.isEncoded())
+        {
+            bytes = message.getBytes();
+            count = message.getFieldCount();
+            for(int i = 0; i < count; i++)
+            {
+                from[i] = message.getFieldStart(i);
+                to[i] = message.getFieldEnd(i);
+            }
+        }
+        else
+        {
+            count = 0;
+            while(count < 5 && message.getField(count) != null)
+            {
+                count++;
+            }
+            byte[][] fields = new byte[count][];
+            int total = 0;
+            for(int i = 0; i < count; i++)
+            {
+                fields[i] = message.getField(i).getBytes(StandardCharsets.UTF_8);
+                total += fields[i].length;
+            }
+            bytes = new byte[total];
+            total = 0;
+            for(int i = 0; i < count; i++)
+            {
+                System.arraycopy(fields[i], 0, bytes, total, fields[i].length);
+                from[i] = total;
+                total += fields[i].length;
+                to[i] = total;
+            }
+        }
+
+        int length = ReviewFile.RECORD_HEADER_SIZE;
+        for(int i = 0; i < count; i++)
+        {
+            length += 4 + to[i] - from[i];
+        }
+        if(count > 0)
+        {
+            buyers.add(ReviewFile.hashTrimmed(bytes, from[0], to[0]), position);
+        }
+        if(count > 1)
+        {
+            products.add(ReviewFile.hashTrimmed(bytes, from[1], to[1]), position);
+        }
+        position += length;
+        records++;
+
+        if(buffer.remaining() < length)
         {
-            String line;
-            while ((line = reader.readLine()) != null) 
+            buffer = flusher.swap(buffer);
+        }
+        ByteBuffer target = buffer.remaining() < length ? ByteBuffer.allocate(length) : buffer;
+        target.putInt(length - 4);
+        target.put((byte) message.getSentiment());
+        target.put((byte) count);
+        for(int i = 0; i < count; i++)
+        {
+            target.putInt(to[i] - from[i]);
+            target.put(bytes, from[i], to[i] - from[i]);
+        }
+        if(target == buffer)
+        {
+            return buffer;
+        }
+        target.flip();
+        while(target.hasRemaining())
+        {
+            if(!buffer.hasRemaining())
             {
-                bQueue.put(line);
+                buffer = flusher.swap(buffer);
             }
-            blackboard.increaseEliminatorCounter();
-            bQueue.put("STOP");
+            int chunk = Math.min(buffer.remaining(), target.remaining());
+            ByteBuffer slice = target.duplicate();
+            slice.limit(slice.position() + chunk);
+            buffer.put(slice);
+            target.position(target.position() + chunk);
         }
-        catch(IOException | InterruptedException e)
+        return buffer;
+    }
+
+    private void writeIndex(Path path) throws IOException
+    {
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16)))
         {
-            e.printStackTrace();
+            out.writeInt(ReviewFile.INDEX_MAGIC);
+            out.writeInt(ReviewFile.VERSION);
+            out.writeLong(records);
+            out.writeInt(buyers.keys());
+            out.writeInt(products.keys());
+            buyers.writeKeys(out, 0);
+            products.writeKeys(out, buyers.entries());
+            buyers.writePostings(out);
+            products.writePostings(out);
         }
     }
 
+    public void connect(StageQueue input, StageQueue output)
+    {
+        this.bQueue = input;
+    }
+
+    public void setMetrics(StageMetrics metrics)
+    {
+        this.metrics = metrics;
+    }
+
     public boolean isEliminator()
     {
-        return true;
+        return false;
     }
 
-    public boolean execCondition(BlockingQueue<String> sharedQueue)
+    public boolean execCondition(StageQueue input)
     {
         return true;
     }
 }
 
-class BuyerFilter implements KnowledgeSource
+class ReviewRecord
 {
-    private HashSet<String> buyers;
-    private BlockingQueue<String> bQueue;
-    private ParallelBlackboard blackboard;
+    private final long offset;
+    private final char sentiment;
+    private final int fieldCount;
+    private final ByteBuffer fields;
 
-    public BuyerFilter(HashSet<String> buyers, BlockingQueue<String> bQueue, ParallelBlackboard blackboard) 
+    public ReviewRecord(long offset, ByteBuffer record)
     {
-        this.buyers = buyers;
-        this.bQueue=bQueue;
-        this. blackboard = blackboard;
+        this.offset = offset;
+        this.sentiment = (char) (record.get(4) & 0xFF);
+        this.fieldCount = record.get(5) & 0xFF;
+        this.fields = record;
     }
 
-    public void run()
+    public long getOffset()
     {
-        try
-        {
-            while(true)
-            {
-                String message=bQueue.take();
-                if(message.equals("STOP")) break;
-
-                String[] words = message.split(", ");
-                if(words.length >= 2 && buyers.contains(words[0].trim()+" - "+words[1].trim()))
-                {
-                    bQueue.put(message);
-                }
-            }
-            blackboard.setUpdatedMessage(true);
-            blackboard.increaseEliminatorCounter();
-            bQueue.put("STOP");
-        }
-        catch(InterruptedException e)
-        {
-            Thread.currentThread().interrupt();
-        }
+        return offset;
     }
 
-    public boolean isEliminator()
+    public char getSentiment()
     {
-        return true;
+        return sentiment;
     }
 
-    public boolean execCondition(BlockingQueue<String> sharedQueue)
+    public int getFieldCount()
     {
-        return blackboard.isUpdatedMessage()==false;
+        return fieldCount;
     }
-}
-
-class ProfanityFilter implements KnowledgeSource 
-{
-    private BlockingQueue<String> bQueue;
-    private ParallelBlackboard blackboard;
 
-    public ProfanityFilter(BlockingQueue<String> bQueue, ParallelBlackboard blackboard)
+    private int fieldPosition(int field)
     {
-        this.bQueue=bQueue;
-        this.blackboard =blackboard;
+        int position = ReviewFile.RECORD_HEADER_SIZE;
+        for(int i = 0; i < field; i++)
+        {
+            position += 4 + fields.getInt(position);
+        }
+        return position;
     }
 
-    public void run()
+    public String getField(int field)
     {
-        try
+        if(field >= fieldCount)
         {
-            while(true)
-            {
-                String message=bQueue.take();
-                if(message.equals("STOP")) break;
+            return null;
+        }
+        int position = fieldPosition(field);
+        byte[] value = new byte[fields.getInt(position)];
+        fields.get(position + 4, value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
 
-                if(!message.contains("@#$%"))
-                {
-                    bQueue.put(message);
-                }
-            }
-            blackboard.setUpdatedMessage(true);
-            blackboard.increaseEliminatorCounter();
-            bQueue.put("STOP");
+    public boolean fieldEquals(int field, byte[] key)
+    {
+        if(field >= fieldCount)
+        {
+            return false;
         }
-        catch(InterruptedException e)
+        int position = fieldPosition(field) + 4;
+        int end = position + fields.getInt(position - 4);
+        while(position < end && (fields.get(position) & 0xFF) <= ' ')
         {
-            Thread.currentThread().interrupt();
+            position++;
+        }
+        while(end > position && (fields.get(end - 1) & 0xFF) <= ' ')
+        {
+            end--;
+        }
+        if(end - position != key.length)
+        {
+            return false;
+        }
+        for(int i = 0; i < key.length; i++)
+        {
+            if(fields.get(position + i) != key[i])
+            {
+                return false;
+            }
         }
+        return true;
     }
 
-    public boolean isEliminator()
+    public String getBuyer()
     {
-        return true;
+        return getField(0);
     }
 
-    public boolean execCondition(BlockingQueue<String> sharedQueue)
+    public String getProduct()
     {
-        return !blackboard.isUpdatedMessage();
+        return getField(1);
     }
-}
 
-class PoliticalFilter implements KnowledgeSource
-{
-    private BlockingQueue<String> bQueue;
-    private ParallelBlackboard blackboard;
+    public String getText()
+    {
+        return getField(2);
+    }
 
-    public PoliticalFilter (BlockingQueue<String> bQueue, ParallelBlackboard blackboard)
+    public String getImage()
     {
-        this.bQueue =bQueue;
-        this.blackboard = blackboard;
+        return getField(3);
     }
 
-    public void run()
+    public String toString()
     {
-        try
+        StringBuilder line = new StringBuilder();
+        for(int i = 0; i < fieldCount; i++)
         {
-            while(true)
+            if(i > 0)
             {
-                String message=bQueue.take();
-                if(message.equals("STOP")) break;
-
-                if(!message.contains("+++") && !message.contains("---"))
-                {
-                    bQueue.put(message);
-                }
+                line.append(", ");
+            }
+            line.append(getField(i));
+            if(i == 2 && sentiment != 0)
+            {
+                line.append(sentiment);
             }
-            blackboard.setUpdatedMessage(true);
-            blackboard.increaseEliminatorCounter();
-            bQueue.put("STOP");
-        }
-        catch(InterruptedException e)
-        {
-            Thread.currentThread().interrupt();
         }
-    }
-
-    public boolean isEliminator()
-    {
-        return true;
-    }
-
-    public boolean execCondition(BlockingQueue<String> sharedQueue)
-    {
-        return !blackboard.isUpdatedMessage();
+        return line.toString();
     }
 }
 
-class ImageResizer implements KnowledgeSource
+class ReviewFile implements Closeable
 {
-    private BlockingQueue<String> bQueue;
-    private ParallelBlackboard blackboard;
+    public static final int MAGIC = 0x42425256;
+    public static final int INDEX_MAGIC = 0x42424958;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 8;
+    public static final int RECORD_HEADER_SIZE = 6;
+    public static final String INDEX_SUFFIX = ".idx";
 
-    public ImageResizer (BlockingQueue<String> bQueue, ParallelBlackboard blackboard)
-    {
-        this.bQueue =bQueue;
-        this.blackboard = blackboard;
-    }
+    private static final long REGION_SIZE = 1L << 30;
+    private static final int INDEX_HEADER_SIZE = 24;
+    private static final int KEY_SIZE = 24;
 
-    public void run()
+    private final FileChannel channel;
+    private final MappedByteBuffer[] regions;
+    private final long size;
+    private final MappedByteBuffer[] index;
+    private final long records;
+    private final int buyerKeys;
+    private final int productKeys;
+
+    private ReviewFile(FileChannel channel, MappedByteBuffer[] regions, MappedByteBuffer[] index) throws IOException
     {
-        blackboard.setTransformationFlag(true);
-        try
+        this.channel = channel;
+        this.regions = regions;
+        this.size = channel.size();
+        this.index = index;
+        if(size < HEADER_SIZE || index.length == 0 || index[0].limit() < INDEX_HEADER_SIZE
+            || slice(0, HEADER_SIZE).getInt(0) != MAGIC || index[0].getInt(0) != INDEX_MAGIC)
         {
-            while(true)
-            {
-                String message=bQueue.take();
-                if(message.equals("STOP")) break;
-
-                String[] parts=message.split(", ");
-                if(parts.length>=4)
-                {
-                    parts[3]=parts[3].toLowerCase();
-                }
-                bQueue.put(String.join(", ", parts));
-            }
-            blackboard.setTransformationFlag(true);
-            bQueue.put("STOP");
+            throw new IOException("Not a review file");
         }
-        catch(InterruptedException e)
+        if(slice(0, HEADER_SIZE).getInt(4) != VERSION || index[0].getInt(4) != VERSION)
         {
-            Thread.currentThread().interrupt();
+            throw new IOException("Unsupported review file version");
         }
+        this.records = index[0].getLong(8);
+        this.buyerKeys = index[0].getInt(16);
+        this.productKeys = index[0].getInt(20);
     }
 
-    public boolean isEliminator()
+    public static ReviewFile open(Path path) throws IOException
     {
-        return false;
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try(FileChannel indexChannel = FileChannel.open(Paths.get(path + INDEX_SUFFIX), StandardOpenOption.READ))
+        {
+            return new ReviewFile(channel, map(channel), map(indexChannel));
+        }
+        catch(IOException | RuntimeException e)
+        {
+            channel.close();
+            throw e;
+        }
     }
 
-
-    public boolean execCondition(BlockingQueue<String> sharedQueue)
+    private static MappedByteBuffer[] map(FileChannel channel) throws IOException
     {
-        return !blackboard.isUpdatedMessage();
+        long size = channel.size();
+        MappedByteBuffer[] regions = new MappedByteBuffer[(int) ((size + REGION_SIZE - 1) / REGION_SIZE)];
+        for(int i = 0; i < regions.length; i++)
+        {
+            long start = i * REGION_SIZE;
+            regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(REGION_SIZE, size - start));
+        }
+        return regions;
     }
-}
 
-class LinkRemover implements KnowledgeSource
-{
-    private BlockingQueue<String> bQueue;
-    private ParallelBlackboard blackboard;
-
-    public LinkRemover (BlockingQueue<String> bQueue, ParallelBlackboard blackboard)
+    public static long hashTrimmed(byte[] bytes, int from, int to)
     {
-        this.bQueue =bQueue;
-        this. blackboard = blackboard;
+        while(from < to && (bytes[from] & 0xFF) <= ' ')
+        {
+            from++;
+        }
+        while(to > from && (bytes[to - 1] & 0xFF) <= ' ')
+        {
+            to--;
+        }
+        return Review.hashOf(bytes, from, to);
     }
 
-    public void run()
+    private ByteBuffer slice(long offset, int length) throws IOException
     {
-        blackboard.setTransformationFlag(true);
-        try
+        int region = (int) (offset / REGION_SIZE);
+        int start = (int) (offset % REGION_SIZE);
+        if(start + length <= regions[region].limit())
         {
-            while(true)
-            {
-                String message =bQueue.take();
-                if(message.equals("STOP")) break;
-
-                bQueue.put(message.replace("http", ""));
-            }
-            blackboard.setUpdatedMessage(true);
-            bQueue.put("STOP");
+            return regions[region].slice(start, length);
         }
-        catch(InterruptedException e)
+        ByteBuffer copy = ByteBuffer.allocate(length);
+        while(copy.hasRemaining())
         {
-            Thread.currentThread().interrupt();
+            if(channel.read(copy, offset + copy.position()) < 0)
+            {
+                throw new EOFException("Truncated record at " + offset);
+            }
         }
+        copy.flip();
+        return copy;
     }
 
-    public boolean isEliminator()
+    private long indexLong(long offset)
     {
-        return false;
+        return index[(int) (offset / REGION_SIZE)].getLong((int) (offset % REGION_SIZE));
     }
 
-    public boolean execCondition(BlockingQueue<String> sharedQueue)
+    public long getRecordCount()
     {
-        return !blackboard.isUpdatedMessage();
+        return records;
     }
-}
-
-class SentimentAnalyzer implements KnowledgeSource
-{
-    private BlockingQueue<String> bQueue;
-    private ParallelBlackboard blackboard;
 
-    public SentimentAnalyzer (BlockingQueue<String> bQueue, ParallelBlackboard blackboard)
+    public ReviewRecord read(long offset) throws IOException
     {
-        this.bQueue =bQueue;
-        this.blackboard = blackboard;
+        int length = slice(offset, 4).getInt(0);
+        return new ReviewRecord(offset, slice(offset, length + 4));
     }
 
-    public void run()
+    public void forEach(Consumer<ReviewRecord> action) throws IOException
     {
-        blackboard.setTransformationFlag(true);
-        try
-        {
-            while(true)
-            {
-                String message =bQueue.take();
-                if(message.equals("STOP")) break;
-                
-                String[] parts = message.split(", ");
-                if (parts.length >= 3 && !parts[2].isEmpty()) 
-                {
-                    String reviewedText = parts[2];
-                    int upper = 0, lower = 0;
-
-                    for (char c : reviewedText.toCharArray()) 
-                    {
-                        if (Character.isUpperCase(c)) upper++;
-                        else if (Character.isLowerCase(c)) lower++;
-                    }
-
-                    if (upper > lower) 
-                    {
-                        parts[2] += "+";
-                    } 
-                    else if (lower > upper) 
-                    {
-                        parts[2] += "-";
-                    } 
-                    else 
-                    {
-                        parts[2] += "=";
-                    }
-                }
-
-                bQueue.put(String.join(", ", parts));
-            }
-            blackboard.setUpdatedMessage(true);
-            bQueue.put("STOP");
-        }
-        catch (InterruptedException e) 
+        long offset = HEADER_SIZE;
+        while(offset < size)
         {
-            Thread.currentThread().interrupt();
+            ReviewRecord record = read(offset);
+            action.accept(record);
+            offset += 4 + slice(offset, 4).getInt(0);
         }
     }
 
-    public boolean isEliminator()
-    {
-        return false;
-    }
-
-    public boolean execCondition(BlockingQueue<String> sharedQueue)
+    public List<ReviewRecord> findByBuyer(String buyer) throws IOException
     {
-        return !blackboard.isUpdatedMessage();
+        return find(0, INDEX_HEADER_SIZE, buyerKeys, buyer);
     }
-}
-
-class WriterFilter implements KnowledgeSource
-{
-    private BlockingQueue<String> bQueue;
-    private String outputFile;
 
-    public WriterFilter(BlockingQueue<String> bQueue, String outputFile)
+    public List<ReviewRecord> findByProduct(String product) throws IOException
     {
-        this.bQueue=bQueue;
-        this.outputFile=outputFile;
+        return find(1, INDEX_HEADER_SIZE + (long) buyerKeys * KEY_SIZE, productKeys, product);
     }
 
-    public void run()
+    private List<ReviewRecord> find(int field, long table, int keys, String value) throws IOException
     {
-        try(BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile)))
+        byte[] key = value.trim().getBytes(StandardCharsets.UTF_8);
+        long hash = Review.hashOf(key, 0, key.length);
+        long postings = INDEX_HEADER_SIZE + (long) (buyerKeys + productKeys) * KEY_SIZE;
+        List<ReviewRecord> matches = new ArrayList<>();
+        int low = 0;
+        int high = keys - 1;
+        while(low <= high)
         {
-            while(true)
+            int middle = (low + high) >>> 1;
+            long entry = table + (long) middle * KEY_SIZE;
+            int order = Long.compare(indexLong(entry), hash);
+            if(order < 0)
             {
-                String message=bQueue.take();
-                if(message.equals("STOP")) break;
-
-                writer.write(message);
-                writer.newLine();
+                low = middle + 1;
+            }
+            else if(order > 0)
+            {
+                high = middle - 1;
+            }
+            else
+            {
+                long first = indexLong(entry + 8);
+                long count = indexLong(entry + 16);
+                for(long i = 0; i < count; i++)
+                {
+                    ReviewRecord record = read(indexLong(postings + (first + i) * 8));
+                    if(record.fieldEquals(field, key))
+                    {
+                        matches.add(record);
+                    }
+                }
+                break;
             }
-            bQueue.put("STOP");
-        }
-        catch (IOException | InterruptedException e)
-        {
-            e.printStackTrace();
         }
+        return matches;
     }
 
-    public boolean isEliminator()
+    public void close() throws IOException
     {
-        return false;
+        channel.close();
     }
 
-    public boolean execCondition(BlockingQueue<String> sharedQueue)
+    public static void main(String[] args) throws IOException
     {
-        return true;
+        try(ReviewFile file = ReviewFile.open(Paths.get(args[0])))
+        {
+            if(args.length < 3)
+            {
+                file.forEach(System.out::println);
+                return;
+            }
+            List<ReviewRecord> records = "product".equals(args[1]) ? file.findByProduct(args[2]) : file.findByBuyer(args[2]);
+            for(ReviewRecord record : records)
+            {
+                System.out.println(record);
+            }
+        }
     }
 }
 
@@ -527,21 +5803,47 @@ public class Blackboard_Parallel
 {
     public static void main(String[] args)
     {
-        String inputFile = "input.txt";
-        String outputFile = "output2.txt";
+        String inputFile = args.length > 0 ? args[0] : "input.txt";
+        BlackboardSettings settings = BlackboardSettings.fromSystemProperties();
+        boolean binary = "binary".equals(settings.getOutputFormat());
+        String outputFile = args.length > 1 ? args[1] : binary ? "output2.bbr" : "output2.txt";
 
-        ParallelBlackboard blackboard = new ParallelBlackboard();
-        BlockingQueue<String> sharedQueue = blackboard.getQueue();
+        ParallelBlackboard blackboard = new ParallelBlackboard(settings);
 
-        Control control = new Control(blackboard);
+        Executor executor = StageExecutors.create(settings.getExecutorMode());
+        Control control = new Control(blackboard, executor);
+        control.setShards(settings.getShards());
+        control.setMetrics(settings.isMetrics());
+        control.setFusion(settings.isFusion());
+        control.setCacheSize(settings.getCacheSize());
+        control.setAdaptive(settings.isAdaptive());
+        control.setElasticThreads(settings.getElasticThreads());
 
         long startTime = System.currentTimeMillis();
 
-        ReaderFilter readerFilter = new ReaderFilter(inputFile, sharedQueue, blackboard);
+        boolean compressed;
+        try
+        {
+            compressed = GzipBlockInputStream.isGzip(Paths.get(inputFile));
+        }
+        catch(IOException e)
+        {
+            e.printStackTrace();
+            return;
+        }
 
-        readerFilter.run();
+        KnowledgeSource readerFilter;
+        if(!compressed && ("mapped".equals(settings.getReaderMode()) || "bytes".equals(settings.getMessagePath())))
+        {
+            readerFilter = new MappedReaderFilter(inputFile, blackboard.getQueue(), blackboard, Runtime.getRuntime().availableProcessors());
+        }
+        else
+        {
+            readerFilter = new ReaderFilter(inputFile, blackboard.getQueue(), blackboard);
+        }
+        control.setReader(readerFilter);
 
-        HashSet<String> buyers=new HashSet<>(Arrays.asList
+        List<String> defaultBuyers = Arrays.asList
         (
             "John - Laptop", 
             "Mary - Phone",
@@ -573,23 +5875,68 @@ public class Blackboard_Parallel
             "Sebastian - Flower",
             "Daniel - Bonsai",
             "Terry - Silver"
-        ));
+        );
+
+        TermMatcher blocklist;
+        BuyerIndex buyers;
+        try
+        {
+            blocklist = TermMatcher.load(settings.getProfanityTerms(), settings.getPoliticalTerms());
+            buyers = settings.getBuyers() == null ? BuyerIndex.of(defaultBuyers) : BuyerIndex.load(settings.getBuyers());
+        }
+        catch(IOException e)
+        {
+            e.printStackTrace();
+            return;
+        }
 
-        control.addKnowledgeSource(new ProfanityFilter(sharedQueue, blackboard));
-        control.addKnowledgeSource(new PoliticalFilter(sharedQueue, blackboard));
-        control.addKnowledgeSource(new BuyerFilter(buyers, sharedQueue, blackboard));
+        control.addKnowledgeSource(new ProfanityFilter(blocklist, blackboard));
+        control.addKnowledgeSource(new PoliticalFilter(blocklist, blackboard));
+        control.addKnowledgeSource(new BuyerFilter(buyers, blackboard));
 
         blackboard.setTransformationFlag(true);
 
-        control.addKnowledgeSource(new SentimentAnalyzer(sharedQueue, blackboard));
-        control.addKnowledgeSource(new ImageResizer(sharedQueue, blackboard));
-        control.addKnowledgeSource(new LinkRemover(sharedQueue, blackboard));
+        control.addKnowledgeSource(new SentimentAnalyzer(blackboard));
+        control.addKnowledgeSource(new ImageResizer(blackboard));
+        control.addKnowledgeSource(new LinkRemover(blackboard));
 
-        WriterFilter writerFilter = new WriterFilter(sharedQueue, outputFile);
+        if(binary)
+        {
+            control.setWriter(new BinaryWriterFilter(blackboard.getOutputQueue(), outputFile, settings.getWriteBuffer(), settings.getFsync()));
+        }
+        else
+        {
+            control.setWriter(new WriterFilter(blackboard.getOutputQueue(), outputFile, settings.getWriteBuffer(), settings.getFsync(), settings.getGzipThreads()));
+        }
 
-        control.execute();
+        boolean failed = false;
+        try
+        {
+            control.execute();
+        }
+        catch(CompletionException e)
+        {
+            e.getCause().printStackTrace();
+            failed = true;
+        }
+        finally
+        {
+            control.close();
+            StageExecutors.shutdown(executor);
+        }
+        if(failed)
+        {
+            System.exit(1);
+        }
 
-        writerFilter.run();
+        if(settings.isMetrics())
+        {
+            control.printMetrics(System.out);
+        }
+        if(settings.getCacheSize() > 0)
+        {
+            control.printCaches(System.out);
+        }
 
         long endTime = System.currentTimeMillis();
 
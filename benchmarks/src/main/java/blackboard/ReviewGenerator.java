@@ -0,0 +1,45 @@
+package blackboard;
+
+import java.util.*;
+
+public final class ReviewGenerator
+{
+    private static final String[] NAMES = { "John", "Mary", "Ann", "Peter", "Bob", "Terry", "Zed" };
+    private static final String[] PRODUCTS = { "Laptop", "Phone", "BigMac", "Tractor", "Notebook", "Silver" };
+    private static final String[] TEXTS = { "httpok", "So GOOD", "@#$%) no", "vote --- now", "great DEAL", "MiXeD cAsE review text" };
+    private static final String[] IMAGES = { "PICTURE", "IMAGE", "AloToFpiCtureS", "Image" };
+
+    public static final List<String> BUYERS = Arrays.asList("John - Laptop", "Mary - Phone", "Ann - BigMac", "Peter - Tractor", "Terry - Silver");
+
+    private final List<String> lines;
+    private int next;
+
+    public ReviewGenerator(int lines, long seed)
+    {
+        this.lines = generate(lines, seed);
+    }
+
+    public static List<String> generate(int lines, long seed)
+    {
+        Random random = new Random(seed);
+        List<String> messages = new ArrayList<>(lines);
+        for(int i = 0; i < lines; i++)
+        {
+            messages.add(NAMES[random.nextInt(NAMES.length)] + ", " + PRODUCTS[random.nextInt(PRODUCTS.length)] + ", "
+                + TEXTS[random.nextInt(TEXTS.length)] + ", " + IMAGES[random.nextInt(IMAGES.length)]);
+        }
+        return messages;
+    }
+
+    public List<String> getLines()
+    {
+        return lines;
+    }
+
+    public String nextLine()
+    {
+        String line = lines.get(next);
+        next = next + 1 == lines.size() ? 0 : next + 1;
+        return line;
+    }
+}
@@ -0,0 +1,160 @@
+package blackboard.parallel;
+
+import blackboard.*;
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+public class ParallelBenchmark
+{
+    private ReviewGenerator generator;
+    private ProfanityFilter profanity;
+    private PoliticalFilter political;
+    private BuyerFilter buyers;
+    private SentimentAnalyzer sentiment;
+    private ImageResizer images;
+    private LinkRemover links;
+
+    @State(Scope.Thread)
+    public static class Pipeline
+    {
+        @Param({ "10000", "100000" })
+        public int lines;
+
+        private Path input;
+        private Path output;
+        private ExecutorService executor;
+        private Control control;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException
+        {
+            input = Files.createTempFile("blackboard-bench", ".txt");
+            output = Files.createTempFile("blackboard-bench", ".out");
+            Files.write(input, ReviewGenerator.generate(lines, 42), StandardCharsets.UTF_8);
+
+            BlackboardSettings settings = BlackboardSettings.fromSystemProperties();
+            TermMatcher blocklist = TermMatcher.load(settings.getProfanityTerms(), settings.getPoliticalTerms());
+            ParallelBlackboard blackboard = new ParallelBlackboard(settings);
+            executor = Executors.newCachedThreadPool();
+            control = new Control(blackboard, executor);
+            control.setShards(settings.getShards());
+            control.setMetrics(settings.isMetrics());
+            control.setFusion(settings.isFusion());
+            control.setCacheSize(settings.getCacheSize());
+            control.setAdaptive(settings.isAdaptive());
+            control.setElasticThreads(settings.getElasticThreads());
+            if("bytes".equals(settings.getMessagePath()))
+            {
+                control.setReader(new MappedReaderFilter(input.toString(), blackboard.getQueue(), blackboard, Runtime.getRuntime().availableProcessors()));
+            }
+            else
+            {
+                control.setReader(new ReaderFilter(input.toString(), blackboard.getQueue(), blackboard));
+            }
+            control.addKnowledgeSource(new ProfanityFilter(blocklist, blackboard));
+            control.addKnowledgeSource(new PoliticalFilter(blocklist, blackboard));
+            control.addKnowledgeSource(new BuyerFilter(BuyerIndex.of(ReviewGenerator.BUYERS), blackboard));
+            control.addKnowledgeSource(new SentimentAnalyzer(blackboard));
+            control.addKnowledgeSource(new ImageResizer(blackboard));
+            control.addKnowledgeSource(new LinkRemover(blackboard));
+            control.setWriter(new WriterFilter(blackboard.getOutputQueue(), output.toString(), settings.getWriteBuffer(), settings.getFsync()));
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException
+        {
+            control.close();
+            executor.shutdown();
+            Files.deleteIfExists(input);
+            Files.deleteIfExists(output);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException
+    {
+        BlackboardSettings settings = BlackboardSettings.fromSystemProperties();
+        TermMatcher blocklist = TermMatcher.load(settings.getProfanityTerms(), settings.getPoliticalTerms());
+        ParallelBlackboard blackboard = new ParallelBlackboard(settings);
+        generator = new ReviewGenerator(10000, 42);
+        profanity = new ProfanityFilter(blocklist, blackboard);
+        political = new PoliticalFilter(blocklist, blackboard);
+        buyers = new BuyerFilter(BuyerIndex.of(ReviewGenerator.BUYERS), blackboard);
+        sentiment = new SentimentAnalyzer(blackboard);
+        images = new ImageResizer(blackboard);
+        links = new LinkRemover(blackboard);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public Review parse()
+    {
+        return Review.parse(generator.nextLine());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public boolean profanityFilter()
+    {
+        return profanity.process(Review.parse(generator.nextLine()));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public boolean politicalFilter()
+    {
+        return political.process(Review.parse(generator.nextLine()));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public boolean buyerFilter()
+    {
+        return buyers.process(Review.parse(generator.nextLine()));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public boolean sentimentAnalyzer()
+    {
+        return sentiment.process(Review.parse(generator.nextLine()));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public boolean imageResizer()
+    {
+        return images.process(Review.parse(generator.nextLine()));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public boolean linkRemover()
+    {
+        return links.process(Review.parse(generator.nextLine()));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Control controlExecute(Pipeline pipeline)
+    {
+        pipeline.control.execute();
+        return pipeline.control;
+    }
+}
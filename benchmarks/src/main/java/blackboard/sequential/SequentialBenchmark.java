@@ -0,0 +1,132 @@
+package blackboard.sequential;
+
+import blackboard.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+public class SequentialBenchmark
+{
+    private ReviewGenerator generator;
+    private ProfanityFilter profanity;
+    private PoliticalFilter political;
+    private BuyerFilter buyers;
+    private SentimentAnalyzer sentiment;
+    private ImageResizer images;
+    private LinkRemover links;
+
+    @State(Scope.Thread)
+    public static class Pipeline
+    {
+        @Param({ "10000", "100000" })
+        public int lines;
+
+        private List<String> messages;
+        private Control control;
+
+        @Setup(Level.Trial)
+        public void generate()
+        {
+            messages = ReviewGenerator.generate(lines, 42);
+        }
+
+        @Setup(Level.Invocation)
+        public void fillStore()
+        {
+            TermMatcher blocklist = TermMatcher.defaults();
+            BlackboardStore blackboardStore = new BlackboardStore();
+            blackboardStore.addMessages(messages);
+            control = new Control(blackboardStore);
+            control.setFusion(Boolean.parseBoolean(System.getProperty("blackboard.fuse", "true")));
+            control.setAdaptive(Boolean.parseBoolean(System.getProperty("blackboard.adaptive", "true")));
+            control.addKnowledgeSource(new ProfanityFilter(blocklist));
+            control.addKnowledgeSource(new PoliticalFilter(blocklist));
+            control.addKnowledgeSource(new BuyerFilter(BuyerIndex.of(ReviewGenerator.BUYERS)));
+            control.addKnowledgeSource(new SentimentAnalyzer());
+            control.addKnowledgeSource(new ImageResizer());
+            control.addKnowledgeSource(new LinkRemover());
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        generator = new ReviewGenerator(10000, 42);
+        TermMatcher blocklist = TermMatcher.defaults();
+        profanity = new ProfanityFilter(blocklist);
+        political = new PoliticalFilter(blocklist);
+        buyers = new BuyerFilter(BuyerIndex.of(ReviewGenerator.BUYERS));
+        sentiment = new SentimentAnalyzer();
+        images = new ImageResizer();
+        links = new LinkRemover();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public Review parse()
+    {
+        return Review.parse(generator.nextLine());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public boolean profanityFilter()
+    {
+        return profanity.accept(Review.parse(generator.nextLine()));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public boolean politicalFilter()
+    {
+        return political.accept(Review.parse(generator.nextLine()));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public boolean buyerFilter()
+    {
+        return buyers.accept(Review.parse(generator.nextLine()));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public Review sentimentAnalyzer()
+    {
+        return sentiment.transform(Review.parse(generator.nextLine()));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public Review imageResizer()
+    {
+        return images.transform(Review.parse(generator.nextLine()));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public Review linkRemover()
+    {
+        return links.transform(Review.parse(generator.nextLine()));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Control controlExecute(Pipeline pipeline)
+    {
+        pipeline.control.execute();
+        return pipeline.control;
+    }
+}